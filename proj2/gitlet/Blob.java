@@ -1,10 +1,63 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * A version of a file's contents.  Blobs are stored zlib-compressed, either in
+ * full or as a delta against another blob (usually the previous version of
+ * the same file), and are rebuilt transparently by load.
+ *
+ * Files of STREAM_THRESHOLD bytes or more are never held in memory: they are
+ * hashed and copied into the store in one streaming pass, stored
+ * uncompressed, and copied straight back out on checkout.
+ *
+ * When core.chunking is on, files of CHUNK_THRESHOLD bytes or more are
+ * instead split into content-defined chunks (see Chunker), each compressed
+ * and stored once in CHUNKS under the SHA-1 of its contents, and the blob
+ * only lists its chunk ids.  Versions of a file that share most of their
+ * contents, such as a log that is only appended to, then share most of their
+ * chunks.  Chunked files are also streamed, one chunk at a time.
+ *
+ * @author ZonePG
+ */
 public class Blob implements Serializable {
     public static final File BLOBS_DIR = Utils.join(Repository.GITLET_DIR, "/blobs");
+    public static final ObjectStore STORE = new PackedObjectStore(BLOBS_DIR);
+    public static final File CHUNKS_DIR = Utils.join(Repository.GITLET_DIR, "/chunks");
+    public static final ObjectStore CHUNKS = new PackedObjectStore(CHUNKS_DIR);
+
+    /** Longest chain of deltas that may have to be applied to rebuild a blob. */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Starts every blob record; older repositories stored raw contents. */
+    private static final int MAGIC = 0x00474c42;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final byte STORED = 2;
+    private static final byte CHUNKED = 3;
+    /** Files at least this long are streamed rather than read into memory. */
+    private static final long STREAM_THRESHOLD = 8 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Files at least this long are chunked, when chunking is on. */
+    private static final long CHUNK_THRESHOLD = 64 << 10;
+    // magic, type, depth, contents length
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 8;
+    private static final int ID_SIZE = 20;
+    /** Headers of recently used blobs, which a long-running daemon reuses between commands. */
+    private static final LruCache<String, byte[]> HEADERS = new LruCache<>(1 << 16);
 
     private final byte[] contents;
     private final String blobId;
@@ -14,6 +67,11 @@ public class Blob implements Serializable {
         this.blobId = calcHash();
     }
 
+    private Blob(byte[] contents, String blobId) {
+        this.contents = contents;
+        this.blobId = blobId;
+    }
+
     private String calcHash() {
         return Utils.sha1((Object) this.contents);
     }
@@ -22,7 +80,360 @@ public class Blob implements Serializable {
         return blobId;
     }
 
+    public byte[] getContents() {
+        return contents;
+    }
+
     public void save() {
-        Utils.writeContents(Utils.join(BLOBS_DIR, blobId), (Object) contents);
+        save(null);
+    }
+
+    /** Saves this blob, as a delta against blob BASEID if that is worthwhile. */
+    public void save(String baseId) {
+        if (STORE.contains(blobId)) {
+            return;
+        }
+        STORE.put(blobId, encode(baseId));
+    }
+
+    /**
+     * Saves the contents of FILE as a blob, as a delta against blob BASEID if
+     * that is worthwhile, or in chunks if CHUNKED and FILE is large enough,
+     * and returns its id.
+     */
+    public static String saveFile(File file, String baseId, boolean chunked) {
+        if (chunked && file.length() >= CHUNK_THRESHOLD) {
+            return saveChunks(file);
+        }
+        if (file.length() < STREAM_THRESHOLD) {
+            Blob blob = new Blob(Utils.readContents(file));
+            blob.save(baseId);
+            return blob.getId();
+        }
+        File tmpFile = STORE.createTempFile();
+        MessageDigest md = sha1Digest();
+        long length = 0;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+            out.position(HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer.array(), 0, buffer.limit());
+                length += buffer.limit();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            // The header is written last, once the length is known.
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put(STORED).put((byte) 0).putLong(length).flip();
+            out.write(header, 0);
+        } catch (IOException excp) {
+            tmpFile.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String blobId = Utils.bytesToHex(md.digest(), 0, ID_SIZE);
+        STORE.putFile(blobId, tmpFile);
+        return blobId;
+    }
+
+    private static String saveChunks(File file) {
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream chunkIds = new ByteArrayOutputStream();
+        long[] length = new long[1];
+        try (InputStream in = new FileInputStream(file)) {
+            Chunker.split(in, chunk -> {
+                md.update(chunk);
+                length[0] += chunk.length;
+                String chunkId = Utils.sha1((Object) chunk);
+                if (!CHUNKS.contains(chunkId)) {
+                    CHUNKS.put(chunkId, Utils.deflate(chunk));
+                }
+                chunkIds.writeBytes(Utils.hexToBytes(chunkId));
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String blobId = Utils.bytesToHex(md.digest(), 0, ID_SIZE);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + chunkIds.size());
+        record.putInt(MAGIC).put(CHUNKED).put((byte) 0).putLong(length[0]);
+        record.put(chunkIds.toByteArray());
+        STORE.put(blobId, record.array());
+        return blobId;
+    }
+
+    /**
+     * Returns the ids of the chunks of blob BLOBID in STORE, in order, or an
+     * empty list if it is not chunked.
+     */
+    public static List<String> chunkIds(ObjectStore store, String blobId) {
+        byte[] header = store.getPrefix(blobId, HEADER_SIZE);
+        List<String> result = new ArrayList<>();
+        if (header == null || !isRecord(header) || header[4] != CHUNKED) {
+            return result;
+        }
+        byte[] record = store.get(blobId);
+        for (int pos = HEADER_SIZE; pos + ID_SIZE <= record.length; pos += ID_SIZE) {
+            result.add(Utils.bytesToHex(record, pos, ID_SIZE));
+        }
+        return result;
+    }
+
+    /** Returns the contents of chunk CHUNKID. */
+    private static byte[] loadChunk(String chunkId) {
+        byte[] chunk = CHUNKS.get(chunkId);
+        if (chunk == null) {
+            throw Utils.error("Missing chunk %s.", chunkId);
+        }
+        return Utils.inflate(chunk, 0);
+    }
+
+    /** Returns the id the contents of FILE would have as a blob, reading it in pieces. */
+    public static String hashFile(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Utils.bytesToHex(md.digest(), 0, ID_SIZE);
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Writes the contents of blob BLOBID to TARGET.  Streamed blobs are copied
+     * straight from the store without passing through memory, and chunked
+     * blobs are written one chunk at a time.
+     */
+    public static void writeTo(String blobId, File target) {
+        byte[] header = header(blobId);
+        if (header == null) {
+            throw Utils.error("Missing blob %s.", blobId);
+        }
+        boolean chunked = isRecord(header) && header[4] == CHUNKED;
+        if (!chunked && (!isRecord(header) || header[4] != STORED)) {
+            Utils.writeContents(target, (Object) load(blobId).contents);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (!chunked) {
+                STORE.transferTo(blobId, HEADER_SIZE, out);
+                return;
+            }
+            for (String chunkId : chunkIds(STORE, blobId)) {
+                ByteBuffer chunk = ByteBuffer.wrap(loadChunk(chunkId));
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the start of the record of blob BLOBID, or null if there is no such blob. */
+    private static byte[] header(String blobId) {
+        byte[] header = HEADERS.get(blobId);
+        if (header == null) {
+            header = STORE.getPrefix(blobId, HEADER_SIZE);
+            // A partial clone fetches the blobs it left out when they are first needed.
+            if (header == null && Promisor.fetch(blobId)) {
+                header = STORE.getPrefix(blobId, HEADER_SIZE);
+            }
+            if (header != null) {
+                HEADERS.put(blobId, header);
+            }
+        }
+        return header;
+    }
+
+    /** Forgets the headers of recently used blobs, for after some have been deleted. */
+    public static void clearCache() {
+        HEADERS.clear();
+    }
+
+    private byte[] encode(String baseId) {
+        byte[] baseHeader = baseId == null ? null : header(baseId);
+        // Streamed bases are too large to diff in memory, and chunked ones share chunks instead.
+        if (baseHeader != null && isRecord(baseHeader)
+                && (baseHeader[4] == STORED || baseHeader[4] == CHUNKED)) {
+            baseHeader = null;
+        }
+        byte[] baseRecord = baseHeader == null ? null : STORE.get(baseId);
+        if (baseRecord != null && depth(baseRecord) < MAX_DELTA_DEPTH) {
+            byte[] delta = Delta.encode(decode(baseId, baseRecord), contents);
+            if (delta.length < contents.length / 2) {
+                byte[] payload = Utils.deflate(delta);
+                ByteBuffer record = header(DELTA, depth(baseRecord) + 1,
+                        ID_SIZE + payload.length);
+                record.put(Utils.hexToBytes(baseId));
+                record.put(payload);
+                return record.array();
+            }
+        }
+        byte[] payload = Utils.deflate(contents);
+        ByteBuffer record = header(FULL, 0, payload.length);
+        record.put(payload);
+        return record.array();
+    }
+
+    private ByteBuffer header(byte type, int depth, int bodyLength) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.putInt(MAGIC);
+        record.put(type);
+        record.put((byte) depth);
+        record.putLong(contents.length);
+        return record;
+    }
+
+    public static Blob load(String blobId) {
+        byte[] record = STORE.get(blobId);
+        if (record == null && Promisor.fetch(blobId)) {
+            record = STORE.get(blobId);
+        }
+        if (record == null) {
+            return null;
+        }
+        return new Blob(decode(blobId, record), blobId);
+    }
+
+    private static byte[] decode(String blobId, byte[] record) {
+        if (!isRecord(record)) {
+            return record;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.position(HEADER_SIZE);
+        if (record[4] == FULL) {
+            return Utils.inflate(record, HEADER_SIZE);
+        }
+        if (record[4] == STORED) {
+            return Arrays.copyOfRange(record, HEADER_SIZE, record.length);
+        }
+        if (record[4] == CHUNKED) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream(
+                    (int) buffer.getLong(6));
+            for (int pos = HEADER_SIZE; pos + ID_SIZE <= record.length; pos += ID_SIZE) {
+                contents.writeBytes(loadChunk(Utils.bytesToHex(record, pos, ID_SIZE)));
+            }
+            return contents.toByteArray();
+        }
+        byte[] baseId = new byte[ID_SIZE];
+        buffer.get(baseId);
+        Blob base = load(Utils.bytesToHex(baseId, 0, ID_SIZE));
+        if (base == null) {
+            throw Utils.error("Missing delta base for blob %s.", blobId);
+        }
+        return Delta.apply(base.contents, Utils.inflate(record, HEADER_SIZE + ID_SIZE));
+    }
+
+    private static boolean isRecord(byte[] record) {
+        return record.length >= HEADER_SIZE && ByteBuffer.wrap(record).getInt() == MAGIC;
+    }
+
+    private static int depth(byte[] record) {
+        return isRecord(record) ? record[5] : 0;
+    }
+
+    /** Returns the id of the blob that blob BLOBID in STORE is a delta against, or null. */
+    public static String deltaBase(ObjectStore store, String blobId) {
+        byte[] header = store.getPrefix(blobId, HEADER_SIZE + ID_SIZE);
+        if (header == null || header.length < HEADER_SIZE + ID_SIZE || !isRecord(header)
+                || header[4] != DELTA) {
+            return null;
+        }
+        return Utils.bytesToHex(header, HEADER_SIZE, ID_SIZE);
+    }
+
+    /** Returns true iff blob BLOBID is stored in chunks. */
+    public static boolean isChunked(String blobId) {
+        byte[] header = header(blobId);
+        return header != null && isRecord(header) && header[4] == CHUNKED;
+    }
+
+    /** Returns true iff blob BLOBID is stored as a delta. */
+    public static boolean isDelta(String blobId) {
+        byte[] header = header(blobId);
+        return header != null && isRecord(header) && header[4] == DELTA;
+    }
+
+    /**
+     * Returns the SHA-1 of the contents of blob BLOBID, which is BLOBID itself
+     * unless the blob is damaged, or null if there is no such blob.  Streamed
+     * blobs are hashed straight from the store and chunked ones a chunk at a
+     * time, so neither is rebuilt in memory.
+     */
+    public static String contentsHash(String blobId) {
+        byte[] header = STORE.getPrefix(blobId, HEADER_SIZE);
+        if (header == null) {
+            return null;
+        }
+        boolean chunked = isRecord(header) && header[4] == CHUNKED;
+        if (!chunked && (!isRecord(header) || header[4] != STORED)) {
+            byte[] record = STORE.get(blobId);
+            return record == null ? null : Utils.sha1((Object) decode(blobId, record));
+        }
+        MessageDigest md = sha1Digest();
+        if (chunked) {
+            for (String chunkId : chunkIds(STORE, blobId)) {
+                md.update(loadChunk(chunkId));
+            }
+        } else {
+            STORE.transferTo(blobId, HEADER_SIZE, new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer buffer) {
+                    int length = buffer.remaining();
+                    md.update(buffer);
+                    return length;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+        return Utils.bytesToHex(md.digest(), 0, ID_SIZE);
+    }
+
+    /** Returns the length of the contents of blob BLOBID, without rebuilding them. */
+    public static long contentsLength(String blobId) {
+        byte[] header = header(blobId);
+        if (header == null) {
+            return -1;
+        }
+        if (!isRecord(header)) {
+            return STORE.size(blobId);
+        }
+        return ByteBuffer.wrap(header).getLong(6);
+    }
+
+    /** Returns the length of the contents of blob BLOBID in STORE, or -1 if it is not there. */
+    public static long contentsLength(ObjectStore store, String blobId) {
+        byte[] header = store.getPrefix(blobId, HEADER_SIZE);
+        if (header == null) {
+            return -1;
+        }
+        if (!isRecord(header)) {
+            return store.size(blobId);
+        }
+        return ByteBuffer.wrap(header).getLong(6);
     }
 }
@@ -1,37 +1,81 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Branch {
 
     public static final File BRANCHE_DIR = Utils.join(Repository.GITLET_DIR, "/branches");
 
-    public static void setCommitId(String branchName, String commitId) {
-        File branchFile = Utils.join(BRANCHE_DIR, branchName);
-        Utils.writeContents(branchFile, commitId);
+    /** Points branch BRANCHNAME at COMMITID, recording REASON in the reflog. */
+    public static void setCommitId(String branchName, String commitId, String reason) {
+        String oldId = getCommitId(branchName);
+        // Remote-tracking branches, named REMOTE/BRANCH, live in a directory per remote.
+        Journal.write(Utils.join(BRANCHE_DIR, branchName), commitId);
+        Reflog.recordBranch(branchName, oldId, commitId, reason);
     }
 
+    /**
+     * Points branch REMOTEBRANCHNAME of the repository whose .gitlet directory
+     * is REMOTEGITPATH at COMMITID, recording REASON in that repository's
+     * reflog.  The change is journaled there, not in this repository.
+     */
     public static void setRemoteCommitId(String remoteGitPath, String remoteBranchName,
-            String commitId) {
-        File remoteBranchFile = Utils.join(remoteGitPath, remoteBranchName);
-        Utils.writeContents(remoteBranchFile, commitId);
+            String commitId, String reason) {
+        File remoteGitDir = new File(remoteGitPath);
+        String oldId = getRemoteCommitId(remoteGitPath, remoteBranchName);
+        Journal.Batch batch = new Journal.Batch(remoteGitDir);
+        batch.write(Utils.join(remoteGitDir, "branches", remoteBranchName), commitId);
+        Reflog.recordBranchIn(batch, remoteGitDir, remoteBranchName, oldId, commitId, reason);
+        batch.commit();
+    }
+
+    public static boolean exists(String branchName) {
+        return Journal.exists(Utils.join(BRANCHE_DIR, branchName));
+    }
+
+    public static void remove(String branchName) {
+        Journal.delete(Utils.join(BRANCHE_DIR, branchName));
+        Reflog.remove(branchName);
+    }
+
+    /** Returns the names of all branches, including remote-tracking ones named REMOTE/BRANCH. */
+    public static List<String> allNames() {
+        List<String> result = new ArrayList<>();
+        List<String> branches = Utils.plainFilenamesIn(BRANCHE_DIR);
+        if (branches != null) {
+            result.addAll(branches);
+        }
+        File[] remotes = BRANCHE_DIR.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                List<String> remoteBranches = Utils.plainFilenamesIn(remote);
+                if (remoteBranches != null) {
+                    for (String branch : remoteBranches) {
+                        result.add(remote.getName() + "/" + branch);
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     public static String getCommitId(String branchName) {
         File branchFile = Utils.join(BRANCHE_DIR, branchName);
-        if (!branchFile.exists()) {
+        if (!Journal.exists(branchFile)) {
             return null;
         } else {
-            return Utils.readContentsAsString(branchFile);
+            return Journal.readContentsAsString(branchFile);
         }
     }
 
     public static String getRemoteCommitId(String remoteGitPath, String remoteBranchName) {
         File branchFile = Utils.join(remoteGitPath + "/branches", remoteBranchName);
-        if (!branchFile.exists()) {
+        if (!Journal.exists(branchFile)) {
             return null;
         } else {
-            return Utils.readContentsAsString(branchFile);
+            return Journal.readContentsAsString(branchFile);
         }
     }
 }
@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Splits data into content-defined chunks with FastCDC.  A gear hash rolls
+ * over the input, one table lookup and shift per byte, and a chunk ends
+ * where the top bits of the hash are all zero.  Because boundaries depend
+ * only on the bytes just before them, inserting or appending data moves only
+ * the boundaries near the change, and every other chunk is the same as in
+ * the previous version.
+ *
+ * Chunks are between MIN_SIZE and MAX_SIZE bytes.  As FastCDC's normalized
+ * chunking does, a stricter mask is used before AVERAGE_SIZE and a looser
+ * one after it, so chunk sizes cluster around the average.
+ *
+ * @author ZonePG
+ */
+class Chunker {
+
+    static final int MIN_SIZE = 2 << 10;
+    static final int AVERAGE_SIZE = 8 << 10;
+    static final int MAX_SIZE = 64 << 10;
+    /** 13 bits for the 8 KiB average, plus and minus two for normalization. */
+    private static final long MASK_SMALL = -1L << (64 - 15);
+    private static final long MASK_LARGE = -1L << (64 - 11);
+    /** Random but fixed per-byte values, so boundaries never change between versions. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x676974_6c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Returns the length of the chunk that starts at DATA[FROM], within DATA[FROM, TO). */
+    static int cut(byte[] data, int from, int to) {
+        int length = to - from;
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int end = from + Math.min(length, MAX_SIZE);
+        int normal = from + Math.min(length, AVERAGE_SIZE);
+        long hash = 0;
+        int i = from + MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1 - from;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1 - from;
+            }
+        }
+        return end - from;
+    }
+
+    /** Reads IN to its end, passing each chunk to ACTION in order. */
+    static void split(InputStream in, Consumer<byte[]> action) throws IOException {
+        byte[] buffer = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            // Keep at least one maximal chunk buffered, so every cut sees all it may need.
+            while (!eof && end - start < MAX_SIZE) {
+                if (end == buffer.length) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    end += read;
+                }
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buffer, start, end);
+            action.accept(Arrays.copyOfRange(buffer, start, start + length));
+            start += length;
+        }
+    }
+}
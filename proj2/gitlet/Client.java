@@ -0,0 +1,19 @@
+package gitlet;
+
+/**
+ * A thin front end for gitlet that hands each command to the daemon serving
+ * the current directory, if there is one, and otherwise runs it directly.
+ *
+ * @author ZonePG
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main. */
+    public static void main(String[] args) {
+        if (args.length > 0 && Daemon.forward(args, System.out)) {
+            Latency.record("daemon", args);
+            return;
+        }
+        Main.main(args);
+    }
+}
@@ -1,7 +1,12 @@
 package gitlet;
 
-import java.io.*;
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -10,55 +15,213 @@ import java.util.Locale;
 /**
  * Represents a gitlet commit object. does at a high level.
  *
+ * Commits are stored in a small versioned binary record whose fields sit at
+ * fixed offsets, and a commit's id is the SHA-1 of that record:
+ *
+ *   magic (4), version (1), parent flags (1), timestamp in ms (8),
+ *   tree id (20), first parent id (20), second parent id (20),
+ *   message length (4), message (UTF-8)
+ *
+ * Parent ids are all zeros when the matching parent flag is clear.  Commits
+ * written by older versions of gitlet are Java-serialized instead; they still
+ * load, keeping their old ids, until the migrate command rewrites them.
+ *
+ * Walks that only need a commit's parents, date or message, such as log and
+ * filling in the commit graph, load a Header instead, which reads just the
+ * fixed-position fields of the record and the message only when asked for.
+ *
  * @author ZonePG
  */
 public class Commit implements Serializable {
 
+    /** Kept from before the binary format, so that older commits still load. */
+    private static final long serialVersionUID = -4237809030713610501L;
+
     /**
      * The message of this Commit.
      */
     public static final File COMMITS_DIR = Utils.join(Repository.GITLET_DIR, "/commits");
+    public static final ObjectStore STORE = new PackedObjectStore(COMMITS_DIR);
+    public static final CommitGraph GRAPH =
+            new CommitGraph(Utils.join(Repository.GITLET_DIR, "commit-graph"), STORE);
+    public static final CommitLog LOG =
+            new CommitLog(Utils.join(Repository.GITLET_DIR, "commit-log"), GRAPH, STORE);
+    public static final ReachabilityIndex BITMAPS =
+            new ReachabilityIndex(Utils.join(Repository.GITLET_DIR, "commit-bitmaps"), GRAPH);
+
+    /** Formats dates as log prints them; unlike SimpleDateFormat, it can be shared. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM dd HH:mm:ss yyyy Z", new Locale("en", "US"))
+            .withZone(ZoneId.systemDefault());
+
+    /** Recently loaded commits, which a long-running daemon reuses between commands. */
+    private static final LruCache<String, Commit> CACHE = new LruCache<>(1024);
+
+    private static final int MAGIC = 0x474c4354;
+    private static final byte VERSION = 1;
+    private static final int FIRST_PARENT = 1;
+    private static final int SECOND_PARENT = 2;
+    private static final int ID_SIZE = 20;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 8 + 3 * ID_SIZE + 4;
+
     private final String message;
     private final Date timestamp;
     private final String firstParentId;
     private final String secondParentId;
     private final String hash;
+    // The root tree; null in commits made before trees, which list their files in blobs.
+    private String treeId;
     // fileName, blobId
     private HashMap<String, String> blobs;
+    // path, blobId, read from the tree when first needed
+    private transient HashMap<String, String> files;
+    // whether this commit was read from the older, Java-serialized format
+    private transient boolean legacy;
 
     public Commit() {
-        this.message = "initial commit";
-        this.timestamp = new Date(0);
-        this.firstParentId = null;
-        this.secondParentId = null;
-        hash = calcHash();
-        blobs = new HashMap<>();
+        this("initial commit", new Date(0), null, null, Tree.write(new HashMap<>()));
     }
 
-    public Commit(String message, String firstParentId, String secondParentId) {
+    public Commit(String message, String firstParentId, String secondParentId, String treeId) {
+        this(message, new Date(), firstParentId, secondParentId, treeId);
+    }
+
+    private Commit(String message, Date timestamp, String firstParentId, String secondParentId,
+            String treeId) {
         this.message = message;
-        this.timestamp = new Date();
+        this.timestamp = timestamp;
         this.firstParentId = firstParentId;
         this.secondParentId = secondParentId;
-        hash = calcHash();
+        this.treeId = treeId;
+        hash = Utils.sha1((Object) encode());
+    }
 
-        Commit firstParentCommit = load(firstParentId);
-        blobs = new HashMap<>();
-        blobs.putAll(firstParentCommit.blobs);
+    /** A commit read back from its record, whose id is HASH. */
+    private Commit(String message, Date timestamp, String firstParentId, String secondParentId,
+            String treeId, String hash) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.firstParentId = firstParentId;
+        this.secondParentId = secondParentId;
+        this.treeId = treeId;
+        this.hash = hash;
+    }
+
+    /** The parents, timestamp and message of a commit, read without the rest of it. */
+    public static class Header {
+        private final String id;
+        private final long timestamp;
+        private final String firstParentId;
+        private final String secondParentId;
+        private final ObjectStore store;
+        private String message;
+
+        private Header(String id, long timestamp, String firstParentId, String secondParentId,
+                ObjectStore store, String message) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.firstParentId = firstParentId;
+            this.secondParentId = secondParentId;
+            this.store = store;
+            this.message = message;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getFirstParentId() {
+            return firstParentId;
+        }
+
+        public String getSecondParentId() {
+            return secondParentId;
+        }
+
+        /** Returns the message, reading the rest of the record if it has not been read. */
+        public String getMessage() {
+            if (message == null) {
+                message = decodeMessage(store.get(id));
+            }
+            return message;
+        }
+
+        public String toString() {
+            return Commit.toString(id, timestamp, getMessage());
+        }
+    }
+
+    /** Returns the binary record of this commit. */
+    private byte[] encode() {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + messageBytes.length);
+        record.putInt(MAGIC);
+        record.put(VERSION);
+        record.put((byte) ((firstParentId == null ? 0 : FIRST_PARENT)
+                | (secondParentId == null ? 0 : SECOND_PARENT)));
+        record.putLong(timestamp.getTime());
+        record.put(Utils.hexToBytes(getTreeId()));
+        record.put(firstParentId == null ? new byte[ID_SIZE] : Utils.hexToBytes(firstParentId));
+        record.put(secondParentId == null ? new byte[ID_SIZE] : Utils.hexToBytes(secondParentId));
+        record.putInt(messageBytes.length);
+        record.put(messageBytes);
+        return record.array();
+    }
+
+    /** Returns the commit named COMMITID whose stored form is RECORD. */
+    private static Commit decode(String commitId, byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        if (record.length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            Commit commit = Utils.deserialize(record, Commit.class);
+            commit.legacy = true;
+            return commit;
+        }
+        if (buffer.get(4) != VERSION) {
+            throw Utils.error("Unsupported commit format in %s.", commitId);
+        }
+        int parents = buffer.get(5);
+        long timestamp = buffer.getLong(6);
+        String treeId = Utils.bytesToHex(record, 14, ID_SIZE);
+        String firstParentId = (parents & FIRST_PARENT) == 0 ? null
+                : Utils.bytesToHex(record, 14 + ID_SIZE, ID_SIZE);
+        String secondParentId = (parents & SECOND_PARENT) == 0 ? null
+                : Utils.bytesToHex(record, 14 + 2 * ID_SIZE, ID_SIZE);
+        return new Commit(decodeMessage(record), new Date(timestamp), firstParentId,
+                secondParentId, treeId, commitId);
     }
 
-    private String calcHash() {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(bos);
-            oos.writeObject(this);
-            oos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+    /**
+     * Returns the id of the commit stored as RECORD: the SHA-1 of the record,
+     * or for an older, Java-serialized commit, the id saved inside it.
+     */
+    public static String idOf(byte[] record) {
+        if (record.length < HEADER_SIZE || ByteBuffer.wrap(record).getInt(0) != MAGIC) {
+            return Utils.deserialize(record, Commit.class).getHash();
         }
-        return Utils.sha1((Object) bos.toByteArray());
+        return Utils.sha1((Object) record);
+    }
+
+    /** Returns the message stored in RECORD, a binary commit record. */
+    private static String decodeMessage(byte[] record) {
+        int messageLength = ByteBuffer.wrap(record).getInt(14 + 3 * ID_SIZE);
+        return new String(record, HEADER_SIZE, messageLength, StandardCharsets.UTF_8);
+    }
+
+    /** Returns true iff this commit was stored by an older version of gitlet. */
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    /**
+     * Returns a copy of this commit in the current format, with its parents
+     * replaced by NEWFIRSTPARENTID and NEWSECONDPARENTID.
+     */
+    public Commit rewrite(String newFirstParentId, String newSecondParentId) {
+        return new Commit(message, timestamp, newFirstParentId, newSecondParentId, getTreeId());
     }
 
     public String getHash() {
@@ -73,42 +236,112 @@ public class Commit implements Serializable {
         return secondParentId;
     }
 
-    public void save() {
-        File file = Utils.join(COMMITS_DIR, this.getHash());
-        Utils.writeObject(file, this);
+    public Date getTimestamp() {
+        return timestamp;
     }
 
-    public void saveOnRemoteGitPath(String remoteGitPath) {
-        File file = Utils.join(remoteGitPath + "/commits", this.getHash());
-        Utils.writeObject(file, this);
+    public void save() {
+        STORE.put(this.getHash(), encode());
+        GRAPH.add(this);
+        LOG.sync(this);
     }
 
     public static Commit load(String commitId) {
-        if (commitId.length() < 40) {
-            List<String> commitIdList = Utils.plainFilenamesIn(COMMITS_DIR);
-            assert commitIdList != null;
-            for (String findCommitId : commitIdList) {
-                if (findCommitId.startsWith(commitId)) {
-                    commitId = findCommitId;
-                    break;
-                }
+        if (commitId.length() < Utils.UID_LENGTH) {
+            List<String> matches = GRAPH.resolve(commitId);
+            if (matches.isEmpty()) {
+                return null;
             }
+            if (matches.size() > 1) {
+                Utils.exitWithMessage("Ambiguous commit id prefix.");
+            }
+            commitId = matches.get(0);
         }
 
-        File file = Utils.join(COMMITS_DIR, commitId);
-        if (!file.exists()) {
+        return load(STORE, commitId);
+    }
+
+    /** Returns the commit with the full id COMMITID in STORE, or null if there is none. */
+    public static Commit load(ObjectStore store, String commitId) {
+        Commit commit = store == STORE ? CACHE.get(commitId) : null;
+        if (commit != null) {
+            return commit;
+        }
+        byte[] contents = store.get(commitId);
+        if (contents == null) {
             return null;
-        } else {
-            return Utils.readObject(file, Commit.class);
         }
+        commit = decode(commitId, contents);
+        if (store == STORE) {
+            CACHE.put(commitId, commit);
+        }
+        return commit;
     }
 
-    public HashMap<String, String> getBlobs() {
-        return blobs;
+    /** Returns the header of the commit with the full id COMMITID, with its message. */
+    public static Header loadHeader(String commitId) {
+        return loadHeader(STORE, commitId, true);
+    }
+
+    /**
+     * Returns the header of the commit with the full id COMMITID in STORE, or
+     * null if there is none.  Only the fixed-position fields are read unless
+     * WITHMESSAGE, in which case the message is read along with them.
+     */
+    public static Header loadHeader(ObjectStore store, String commitId, boolean withMessage) {
+        Commit commit = store == STORE ? CACHE.get(commitId) : null;
+        if (commit == null) {
+            byte[] record = withMessage ? store.get(commitId)
+                    : store.getPrefix(commitId, HEADER_SIZE);
+            if (record == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            if (record.length >= HEADER_SIZE && buffer.getInt(0) == MAGIC
+                    && buffer.get(4) == VERSION) {
+                int parents = buffer.get(5);
+                return new Header(commitId, buffer.getLong(6),
+                        (parents & FIRST_PARENT) == 0 ? null
+                                : Utils.bytesToHex(record, 14 + ID_SIZE, ID_SIZE),
+                        (parents & SECOND_PARENT) == 0 ? null
+                                : Utils.bytesToHex(record, 14 + 2 * ID_SIZE, ID_SIZE),
+                        store, withMessage ? decodeMessage(record) : null);
+            }
+            // Older commits have no fixed layout to read fields from.
+            commit = load(store, commitId);
+        }
+        return commit.getHeader();
+    }
+
+    /** Returns the header of this commit. */
+    public Header getHeader() {
+        return new Header(hash, timestamp.getTime(), firstParentId, secondParentId, STORE,
+                message);
+    }
+
+    /** Forgets recently loaded commits, for after some have been deleted. */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /** Returns the id of this commit's root tree. */
+    public String getTreeId() {
+        if (treeId == null) {
+            treeId = Tree.write(blobs);
+        }
+        return treeId;
+    }
+
+    /** Returns a map from the path of every file in this commit to its blob id. */
+    public synchronized HashMap<String, String> getBlobs() {
+        if (files == null) {
+            files = treeId == null ? blobs : Tree.flatten(treeId);
+        }
+        return files;
     }
 
     public String getBlobId(String fileName) {
-        return blobs.get(fileName);
+        return getBlobs().get(fileName);
     }
 
     public String getMessage() {
@@ -116,15 +349,12 @@ public class Commit implements Serializable {
     }
 
     public String toString() {
-        String dummyString = "===\n";
-        String commitString = String.format("commit %s\n", hash);
-
-        String pattern = "EEE MMM dd HH:mm:ss yyyy Z";
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern, new Locale("en", "US"));
-        String date = simpleDateFormat.format(timestamp);
-        String dateString = String.format("Date: %s\n", date);
+        return toString(hash, timestamp.getTime(), message);
+    }
 
-        String messageString = String.format("%s\n", message);
-        return dummyString + commitString + dateString + messageString;
+    /** Returns the log entry for the commit ID made at TIMESTAMP with MESSAGE. */
+    public static String toString(String id, long timestamp, String message) {
+        return "===\ncommit " + id + "\nDate: "
+                + DATE_FORMAT.format(Instant.ofEpochMilli(timestamp)) + "\n" + message + "\n";
     }
 }
@@ -0,0 +1,425 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compact, append-only record of the commit history: for each commit, its
+ * parents (as positions in this file), its generation number and its
+ * timestamp.  History walks use it instead of deserializing whole commits;
+ * ancestry and merge-base queries go through the ReachabilityIndex over it.
+ *
+ * Commits are appended after their parents, so positions never change and a
+ * parent always has a smaller position than its children.  The generation of
+ * a commit is one more than the largest generation of its parents, so every
+ * ancestor of a commit has a smaller generation than the commit itself.
+ *
+ * Layout: magic, version, then one entry per commit of (20-byte id, first
+ * parent position, second parent position, generation, timestamp).  Missing
+ * parents are stored as -1, as are the parents of the commits at the edge of
+ * a shallow clone (see Shallow), which were never copied.
+ *
+ * A sorted lookup table of (20-byte id, position) pairs sits next to the
+ * graph, in FILE.ids, and is memory-mapped so that full and abbreviated ids
+ * resolve by binary search.  It covers the first COVERED entries of the graph;
+ * newer entries form a short tail that is scanned linearly until there are
+ * enough of them to be worth re-sorting the table.
+ *
+ * @author ZonePG
+ */
+public class CommitGraph {
+
+    private static final int MAGIC = 0x43475048;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_SIZE = 20;
+    private static final int ENTRY_SIZE = ID_SIZE + 4 + 4 + 4 + 8;
+    private static final int NONE = -1;
+    private static final int LOOKUP_MAGIC = 0x43474944;
+    private static final int LOOKUP_ENTRY_SIZE = ID_SIZE + 4;
+    /** Smallest unsorted tail that is worth re-sorting the lookup table for. */
+    private static final int MIN_TAIL = 128;
+
+    private final File file;
+    private final File lookupFile;
+    private final File lockFile;
+    private final File shallowFile;
+    private final ObjectStore commits;
+    private MappedByteBuffer entries;
+    private long mappedLength;
+    private int size;
+    private boolean building;
+    private MappedByteBuffer lookup;
+    private long lookupVersion;
+    private int covered;
+
+    /** A commit graph kept in FILE, describing the commits in COMMITS. */
+    public CommitGraph(File file, ObjectStore commits) {
+        this.file = file;
+        this.lookupFile = new File(file.getPath() + ".ids");
+        this.lockFile = new File(file.getPath() + ".lock");
+        this.shallowFile = new File(file.getParentFile(), "shallow");
+        this.commits = commits;
+    }
+
+    /** Returns the number of commits in this graph. */
+    public int size() {
+        refresh();
+        return size;
+    }
+
+    /** Returns the position of commit ID, or -1 if it is not in the graph. */
+    public int indexOf(String id) {
+        refresh();
+        if (!Utils.isUid(id)) {
+            return NONE;
+        }
+        int i = lowerBound(id);
+        if (i < covered && lookupId(i).equals(id)) {
+            return lookupPosition(i);
+        }
+        for (int pos = covered; pos < size; pos += 1) {
+            if (getId(pos).equals(id)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the ids of the commits whose ids start with PREFIX, stopping
+     * once two have been found, since callers only need to know whether a
+     * prefix is unique.
+     */
+    public List<String> resolve(String prefix) {
+        refresh();
+        List<String> result = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < covered && result.size() < 2; i += 1) {
+            String id = lookupId(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (int pos = covered; pos < size && result.size() < 2; pos += 1) {
+            String id = getId(pos);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the first index in the lookup table whose id is not less than KEY. */
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = covered;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lookupId(mid).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private String lookupId(int i) {
+        byte[] id = new byte[ID_SIZE];
+        lookup.get(HEADER_SIZE + i * LOOKUP_ENTRY_SIZE, id);
+        return Utils.bytesToHex(id, 0, ID_SIZE);
+    }
+
+    private int lookupPosition(int i) {
+        return lookup.getInt(HEADER_SIZE + i * LOOKUP_ENTRY_SIZE + ID_SIZE);
+    }
+
+    public String getId(int pos) {
+        byte[] id = new byte[ID_SIZE];
+        entries.get(entryOffset(pos), id);
+        return Utils.bytesToHex(id, 0, ID_SIZE);
+    }
+
+    public int getFirstParent(int pos) {
+        return entries.getInt(entryOffset(pos) + ID_SIZE);
+    }
+
+    public int getSecondParent(int pos) {
+        return entries.getInt(entryOffset(pos) + ID_SIZE + 4);
+    }
+
+    public int getGeneration(int pos) {
+        return entries.getInt(entryOffset(pos) + ID_SIZE + 8);
+    }
+
+    public long getTimestamp(int pos) {
+        return entries.getLong(entryOffset(pos) + ID_SIZE + 12);
+    }
+
+    private static int entryOffset(int pos) {
+        return HEADER_SIZE + pos * ENTRY_SIZE;
+    }
+
+    public void add(Commit commit) {
+        add(commit.getHash(), commit.getFirstParentId(), commit.getSecondParentId(),
+                commit.getTimestamp().getTime());
+    }
+
+    /**
+     * Appends commit ID with the given parents and TIMESTAMP, unless it is
+     * already present.  Parents that are not yet in the graph are added first,
+     * reading them from the commit store.
+     */
+    public void add(String id, String firstParentId, String secondParentId, long timestamp) {
+        if (indexOf(id) != NONE) {
+            return;
+        }
+        // Read-only commands may extend the graph too, so appends are serialized.
+        RepositoryLock.exclusive(lockFile, () -> {
+            refresh();
+            if (indexOf(id) == NONE) {
+                insert(id, firstParentId, secondParentId, timestamp);
+            }
+        });
+    }
+
+    private void insert(String id, String firstParentId, String secondParentId, long timestamp) {
+        boolean shallow = Shallow.load(shallowFile).contains(id);
+        int firstParent = shallow ? NONE : ensure(firstParentId);
+        int secondParent = shallow ? NONE : ensure(secondParentId);
+        int generation = 1;
+        if (firstParent != NONE) {
+            generation = Math.max(generation, getGeneration(firstParent) + 1);
+        }
+        if (secondParent != NONE) {
+            generation = Math.max(generation, getGeneration(secondParent) + 1);
+        }
+        append(id, firstParent, secondParent, generation, timestamp);
+    }
+
+    /**
+     * Rewrites the graph to hold only the commits at positions set in KEEP,
+     * which must include every ancestor of each of them, and drops the
+     * lookup table, which no longer matches.
+     */
+    public void retain(BitSet keep) {
+        RepositoryLock.exclusive(lockFile, () -> {
+            refresh();
+            int[] newPositions = new int[size];
+            int next = 0;
+            for (int pos = 0; pos < size; pos += 1) {
+                newPositions[pos] = keep.get(pos) ? next++ : NONE;
+            }
+            File tmpFile = RepositoryLock.tempFileFor(file);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int pos = keep.nextSetBit(0); pos >= 0 && pos < size;
+                        pos = keep.nextSetBit(pos + 1)) {
+                    int firstParent = getFirstParent(pos);
+                    int secondParent = getSecondParent(pos);
+                    out.write(Utils.hexToBytes(getId(pos)));
+                    out.writeInt(firstParent == NONE ? NONE : newPositions[firstParent]);
+                    out.writeInt(secondParent == NONE ? NONE : newPositions[secondParent]);
+                    out.writeInt(getGeneration(pos));
+                    out.writeLong(getTimestamp(pos));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            lookupFile.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw Utils.error("Could not write %s.", file);
+            }
+            mappedLength = -1;
+            lookupVersion = -1;
+            covered = 0;
+            refresh();
+        });
+    }
+
+    /** Makes sure commit ID and all its ancestors are in the graph, returning its position. */
+    private int ensure(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Set<String> shallow = Shallow.load(shallowFile);
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            String top = pending.peek();
+            if (indexOf(top) != NONE) {
+                pending.pop();
+                continue;
+            }
+            Commit.Header commit = Commit.loadHeader(commits, top, false);
+            if (commit == null) {
+                throw Utils.error("Missing commit %s.", top);
+            }
+            boolean parentsPresent = true;
+            for (String parentId
+                    : new String[]{commit.getFirstParentId(), commit.getSecondParentId()}) {
+                if (parentId != null && indexOf(parentId) == NONE && !shallow.contains(top)) {
+                    pending.push(parentId);
+                    parentsPresent = false;
+                }
+            }
+            if (parentsPresent) {
+                pending.pop();
+                add(top, commit.getFirstParentId(), commit.getSecondParentId(),
+                        commit.getTimestamp());
+            }
+        }
+        return indexOf(id);
+    }
+
+    private void append(String id, int firstParent, int secondParent, int generation,
+            long timestamp) {
+        truncateTornEntry();
+        boolean fresh = !file.exists() || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Utils.hexToBytes(id));
+            out.writeInt(firstParent);
+            out.writeInt(secondParent);
+            out.writeInt(generation);
+            out.writeLong(timestamp);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        refresh();
+    }
+
+    /**
+     * Cuts off the partial entry, or header, left by a process that died while
+     * appending, so that the next entry starts where it should.  Readers
+     * already ignore it, since they only count whole entries.
+     */
+    private void truncateTornEntry() {
+        long length = file.length();
+        long whole = length < HEADER_SIZE ? 0 : length - (length - HEADER_SIZE) % ENTRY_SIZE;
+        if (whole == length) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(whole);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Picks up entries appended since the graph was last read, building it if needed. */
+    private void refresh() {
+        if (!file.exists()) {
+            if (!building) {
+                building = true;
+                try {
+                    build();
+                } finally {
+                    building = false;
+                }
+            }
+            return;
+        }
+        long length = file.length();
+        if (length == mappedLength) {
+            return;
+        }
+        if (length < HEADER_SIZE) {
+            // Only a torn header, which the next append rewrites.
+            mappedLength = length;
+            size = 0;
+            covered = 0;
+            return;
+        }
+        entries = map(file, length);
+        if (entries.getInt(0) != MAGIC || entries.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt commit graph %s.", file);
+        }
+        mappedLength = length;
+        size = (int) ((length - HEADER_SIZE) / ENTRY_SIZE);
+        refreshLookup();
+    }
+
+    /** Maps the lookup table if it changed, and re-sorts it if the tail has grown too long. */
+    private void refreshLookup() {
+        long version = lookupFile.lastModified() ^ lookupFile.length();
+        if (version != lookupVersion) {
+            lookupVersion = version;
+            covered = 0;
+            if (lookupFile.exists()) {
+                lookup = map(lookupFile, lookupFile.length());
+                // A table left over from a graph that has since been rewritten is useless.
+                if (lookup.getInt(0) == LOOKUP_MAGIC && lookup.getInt(4) <= size) {
+                    covered = lookup.getInt(4);
+                }
+            }
+        }
+        if (size - covered > Math.max(MIN_TAIL, covered / 16)) {
+            writeLookup();
+        }
+    }
+
+    private void writeLookup() {
+        Integer[] order = new Integer[size];
+        String[] ids = new String[size];
+        for (int pos = 0; pos < size; pos += 1) {
+            order[pos] = pos;
+            ids[pos] = getId(pos);
+        }
+        Arrays.sort(order, Comparator.comparing(pos -> ids[pos]));
+        File tmpFile = RepositoryLock.tempFileFor(lookupFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(LOOKUP_MAGIC);
+            out.writeInt(size);
+            for (int pos : order) {
+                out.write(Utils.hexToBytes(ids[pos]));
+                out.writeInt(pos);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!tmpFile.renameTo(lookupFile)) {
+            throw Utils.error("Could not write %s.", lookupFile);
+        }
+        lookup = map(lookupFile, lookupFile.length());
+        lookupVersion = lookupFile.lastModified() ^ lookupFile.length();
+        covered = size;
+    }
+
+    private static MappedByteBuffer map(File file, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Indexes every commit already in the store, for repositories made before the graph. */
+    private void build() {
+        for (String id : commits.ids()) {
+            ensure(id);
+        }
+    }
+}
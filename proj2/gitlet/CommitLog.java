@@ -0,0 +1,493 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * An append-only index of every commit's id, timestamp and message, so that
+ * global-log and find can stream through the history without loading commit
+ * objects.  Entry I describes the commit at position I of the commit graph,
+ * and commits the graph gained without passing through Commit.save (from a
+ * push, or from a repository made before this index) are caught up on first
+ * use.
+ *
+ * Log layout: magic, version, then one entry per commit of (20-byte id,
+ * timestamp, message offset, message length).  Messages are stored as UTF-8,
+ * back to back, in FILE.messages.
+ *
+ * FILE.tokens is an inverted index from each lower-cased word of the messages
+ * to the positions of the commits using it.  Like the lookup table of the
+ * commit graph, it covers the first COVERED entries of the log; newer entries
+ * are searched directly until there are enough of them to be worth merging
+ * into the index.
+ *
+ * @author ZonePG
+ */
+public class CommitLog {
+
+    private static final int MAGIC = 0x434c4f47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_SIZE = 20;
+    private static final int ENTRY_SIZE = ID_SIZE + 8 + 8 + 4;
+    private static final int TOKENS_MAGIC = 0x434c544b;
+    /** Smallest unindexed tail that is worth merging into the token index for. */
+    private static final int MIN_TAIL = 128;
+
+    /** A commit as described by the log. */
+    public static class Entry {
+        private final String id;
+        private final long timestamp;
+        private final String message;
+
+        Entry(String id, long timestamp, String message) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final File file;
+    private final File messagesFile;
+    private final File tokensFile;
+    private final File lockFile;
+    private final CommitGraph graph;
+    private final ObjectStore commits;
+
+    /** A log kept in FILE, describing the commits of GRAPH, which are held in COMMITS. */
+    public CommitLog(File file, CommitGraph graph, ObjectStore commits) {
+        this.file = file;
+        this.messagesFile = new File(file.getPath() + ".messages");
+        this.tokensFile = new File(file.getPath() + ".tokens");
+        this.lockFile = new File(file.getPath() + ".lock");
+        this.graph = graph;
+        this.commits = commits;
+    }
+
+    /** Returns the number of commits in this log. */
+    public int size() {
+        return file.exists() ? (int) ((file.length() - HEADER_SIZE) / ENTRY_SIZE) : 0;
+    }
+
+    /**
+     * Appends every commit in the graph that is not yet in this log.  COMMIT,
+     * if not null, is one of them that need not be read back from the store.
+     */
+    public void sync(Commit commit) {
+        if (size() == graph.size()) {
+            return;
+        }
+        RepositoryLock.exclusive(lockFile, () -> append(commit));
+    }
+
+    private void append(Commit commit) {
+        int graphSize = graph.size();
+        // A log longer than the graph belongs to a graph that has been rewritten.
+        if (size() > graphSize) {
+            clear();
+        }
+        truncateTornEntry();
+        int size = size();
+        if (size == graphSize) {
+            return;
+        }
+        long offset = messagesFile.length();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)));
+             BufferedOutputStream messages = new BufferedOutputStream(
+                     new FileOutputStream(messagesFile, true))) {
+            if (size == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (int pos = size; pos < graphSize; pos += 1) {
+                String id = graph.getId(pos);
+                Commit.Header entry = commit != null && commit.getHash().equals(id)
+                        ? commit.getHeader() : Commit.loadHeader(commits, id, true);
+                byte[] message = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+                // Messages go first, so an entry never points past the end of them.
+                messages.write(message);
+                messages.flush();
+                out.write(Utils.hexToBytes(id));
+                out.writeLong(entry.getTimestamp());
+                out.writeLong(offset);
+                out.writeInt(message.length);
+                offset += message.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Cuts off the partial entry, or header, left by a process that died while
+     * appending, so that the next entry starts where it should.  Messages it
+     * may have left are skipped by offset, as forEach does.
+     */
+    private void truncateTornEntry() {
+        long length = file.length();
+        long whole = length < HEADER_SIZE ? 0 : length - (length - HEADER_SIZE) % ENTRY_SIZE;
+        if (whole == length) {
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(whole);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Empties this log, so that the next sync rebuilds it from the graph. */
+    public void clear() {
+        file.delete();
+        messagesFile.delete();
+        tokensFile.delete();
+    }
+
+    /** Calls ACTION on every commit, in the order they were added. */
+    public void forEach(Consumer<Entry> action) {
+        sync(null);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+             DataInputStream messages = new DataInputStream(
+                     new BufferedInputStream(new FileInputStream(messagesFile)))) {
+            readHeader(in);
+            int size = size();
+            byte[] id = new byte[ID_SIZE];
+            long read = 0;
+            for (int pos = 0; pos < size; pos += 1) {
+                in.readFully(id);
+                long timestamp = in.readLong();
+                long offset = in.readLong();
+                byte[] message = new byte[in.readInt()];
+                // Skip anything left by an append that was interrupted.
+                messages.skipNBytes(offset - read);
+                messages.readFully(message);
+                read = offset + message.length;
+                action.accept(new Entry(Utils.bytesToHex(id, 0, ID_SIZE), timestamp,
+                        new String(message, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of the commits whose message is exactly MESSAGE. */
+    public List<String> findExact(String message) {
+        List<Predicate<String>> filters = new ArrayList<>();
+        for (String token : tokenize(message)) {
+            filters.add(token::equals);
+        }
+        return find(filters, message::equals);
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT. */
+    public List<String> findSubstring(String text) {
+        // A word of TEXT with a non-word character on both sides of it is a
+        // whole word of the message; one at an end of TEXT may be part of one.
+        List<Predicate<String>> filters = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                i += 1;
+            }
+            String token = lower.substring(start, i);
+            boolean wordStart = start > 0;
+            boolean wordEnd = i < lower.length();
+            if (wordStart && wordEnd) {
+                filters.add(token::equals);
+            } else if (wordStart) {
+                filters.add(term -> term.startsWith(token));
+            } else if (wordEnd) {
+                filters.add(term -> term.endsWith(token));
+            } else {
+                filters.add(term -> term.contains(token));
+            }
+        }
+        return find(filters, message -> message.contains(text));
+    }
+
+    /** Returns the ids of the commits some part of whose message matches REGEX. */
+    public List<String> findRegex(Pattern regex) {
+        return find(List.of(), message -> regex.matcher(message).find());
+    }
+
+    /**
+     * Returns the ids of the commits whose message satisfies MATCHES, in the
+     * order they were added.  Only commits that, for each of FILTERS, use some
+     * word satisfying it are considered.
+     */
+    private List<String> find(List<Predicate<String>> filters, Predicate<String> matches) {
+        List<String> result = new ArrayList<>();
+        if (filters.isEmpty()) {
+            forEach(entry -> {
+                if (matches.test(entry.getMessage())) {
+                    result.add(entry.getId());
+                }
+            });
+            return result;
+        }
+        sync(null);
+        BitSet candidates = candidates(filters);
+        try (RandomAccessFile log = new RandomAccessFile(file, "r");
+             RandomAccessFile messages = new RandomAccessFile(messagesFile, "r")) {
+            byte[] id = new byte[ID_SIZE];
+            for (int pos = candidates.nextSetBit(0); pos >= 0;
+                    pos = candidates.nextSetBit(pos + 1)) {
+                log.seek(HEADER_SIZE + (long) pos * ENTRY_SIZE);
+                log.readFully(id);
+                log.readLong();
+                long offset = log.readLong();
+                byte[] message = new byte[log.readInt()];
+                messages.seek(offset);
+                messages.readFully(message);
+                if (matches.test(new String(message, StandardCharsets.UTF_8))) {
+                    result.add(Utils.bytesToHex(id, 0, ID_SIZE));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the positions of the commits that, for each of FILTERS, use some
+     * word satisfying it.  Commits not yet in the token index are always
+     * included.
+     */
+    private BitSet candidates(List<Predicate<String>> filters) {
+        int size = size();
+        int covered = updateTokens(size);
+        BitSet[] matched = new BitSet[filters.size()];
+        for (int i = 0; i < matched.length; i += 1) {
+            matched[i] = new BitSet(size);
+        }
+        if (covered > 0) {
+            try (DataInputStream in = openTokens()) {
+                int terms = in.readInt();
+                for (int t = 0; t < terms; t += 1) {
+                    String term = in.readUTF();
+                    int count = in.readInt();
+                    List<BitSet> targets = new ArrayList<>();
+                    for (int i = 0; i < matched.length; i += 1) {
+                        if (filters.get(i).test(term)) {
+                            targets.add(matched[i]);
+                        }
+                    }
+                    for (int p = 0; p < count; p += 1) {
+                        int pos = in.readInt();
+                        for (BitSet target : targets) {
+                            target.set(pos);
+                        }
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        BitSet result = new BitSet(size);
+        result.set(0, covered);
+        for (BitSet positions : matched) {
+            result.and(positions);
+        }
+        result.set(covered, size);
+        return result;
+    }
+
+    /**
+     * Brings the token index up to date if enough of the SIZE entries are
+     * missing from it, returning the number of entries it covers.
+     */
+    private int updateTokens(int size) {
+        int covered = 0;
+        if (tokensFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(tokensFile))) {
+                if (in.readInt() == TOKENS_MAGIC) {
+                    covered = in.readInt();
+                }
+            } catch (IOException excp) {
+                covered = 0;
+            }
+            // An index left over from a log that has since been rebuilt is useless.
+            if (covered > size) {
+                covered = 0;
+            }
+        }
+        if (size - covered > Math.max(MIN_TAIL, covered / 16)) {
+            covered = writeTokens(covered, size);
+        }
+        return covered;
+    }
+
+    /**
+     * Rewrites the token index to cover all SIZE entries, merging the words of
+     * the entries from COVERED onwards into the existing index.  Only the new
+     * entries' words are held in memory.
+     */
+    private int writeTokens(int covered, int size) {
+        TreeMap<String, List<Integer>> added = new TreeMap<>();
+        try (RandomAccessFile log = new RandomAccessFile(file, "r");
+             RandomAccessFile messages = new RandomAccessFile(messagesFile, "r")) {
+            for (int pos = covered; pos < size; pos += 1) {
+                log.seek(HEADER_SIZE + (long) pos * ENTRY_SIZE + ID_SIZE + 8);
+                long offset = log.readLong();
+                byte[] message = new byte[log.readInt()];
+                messages.seek(offset);
+                messages.readFully(message);
+                for (String token : tokenize(new String(message, StandardCharsets.UTF_8))) {
+                    List<Integer> positions = added.computeIfAbsent(token,
+                            k -> new ArrayList<>());
+                    if (positions.isEmpty() || positions.get(positions.size() - 1) != pos) {
+                        positions.add(pos);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        File tmpFile = RepositoryLock.tempFileFor(tokensFile);
+        File termsFile = RepositoryLock.tempFileFor(tokensFile);
+        int terms = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(termsFile)))) {
+            DataInputStream old = covered > 0 ? openTokens() : null;
+            int oldTerms = old == null ? 0 : old.readInt();
+            String oldTerm = oldTerms > 0 ? old.readUTF() : null;
+            for (Map.Entry<String, List<Integer>> entry : added.entrySet()) {
+                while (oldTerm != null && oldTerm.compareTo(entry.getKey()) < 0) {
+                    copyPostings(old, oldTerm, out, List.of());
+                    terms += 1;
+                    oldTerms -= 1;
+                    oldTerm = oldTerms > 0 ? old.readUTF() : null;
+                }
+                if (oldTerm != null && oldTerm.equals(entry.getKey())) {
+                    copyPostings(old, oldTerm, out, entry.getValue());
+                    oldTerms -= 1;
+                    oldTerm = oldTerms > 0 ? old.readUTF() : null;
+                } else {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (int pos : entry.getValue()) {
+                        out.writeInt(pos);
+                    }
+                }
+                terms += 1;
+            }
+            while (oldTerm != null) {
+                copyPostings(old, oldTerm, out, List.of());
+                terms += 1;
+                oldTerms -= 1;
+                oldTerm = oldTerms > 0 ? old.readUTF() : null;
+            }
+            if (old != null) {
+                old.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        // The term count is only known at the end, so the header is written separately.
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+             BufferedInputStream in = new BufferedInputStream(new FileInputStream(termsFile))) {
+            out.writeInt(TOKENS_MAGIC);
+            out.writeInt(size);
+            out.writeInt(terms);
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        termsFile.delete();
+        if (!tmpFile.renameTo(tokensFile)) {
+            throw Utils.error("Could not write %s.", tokensFile);
+        }
+        return size;
+    }
+
+    /** Copies the postings of TERM from IN to OUT, followed by the positions in EXTRA. */
+    private static void copyPostings(DataInputStream in, String term, DataOutputStream out,
+            List<Integer> extra) throws IOException {
+        int count = in.readInt();
+        out.writeUTF(term);
+        out.writeInt(count + extra.size());
+        for (int i = 0; i < count; i += 1) {
+            out.writeInt(in.readInt());
+        }
+        for (int pos : extra) {
+            out.writeInt(pos);
+        }
+    }
+
+    /** Opens the token index, positioned at its term count. */
+    private DataInputStream openTokens() throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(tokensFile)));
+        in.readInt();
+        in.readInt();
+        return in;
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt commit log %s.", file);
+            }
+        } catch (EOFException excp) {
+            throw Utils.error("Corrupt commit log %s.", file);
+        }
+    }
+
+    /** Returns the distinct lower-cased words of TEXT. */
+    private static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+}
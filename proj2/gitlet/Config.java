@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Repository settings, kept in .gitlet/config as one "key=value" line each.
+ *
+ * @author ZonePG
+ */
+public class Config {
+
+    public static final File CONFIG_FILE = Utils.join(Repository.GITLET_DIR, "config");
+
+    /** The number of threads used to hash and write working files. */
+    public static final String PARALLELISM = "core.parallelism";
+    /** Whether large files are stored as content-defined chunks; off unless "true". */
+    public static final String CHUNKING = "core.chunking";
+    /** The number of days a reflog entry is kept; 90 unless set. */
+    public static final String REFLOG_EXPIRE = "gc.reflogExpire";
+    /** The number of days a reflog entry is kept if no branch reaches its commit; 30 unless set. */
+    public static final String REFLOG_EXPIRE_UNREACHABLE = "gc.reflogExpireUnreachable";
+
+    public static Map<String, String> load() {
+        Map<String, String> result = new TreeMap<>();
+        if (!CONFIG_FILE.exists()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(CONFIG_FILE).split("\n")) {
+            int equals = line.indexOf('=');
+            if (equals > 0) {
+                result.put(line.substring(0, equals), line.substring(equals + 1));
+            }
+        }
+        return result;
+    }
+
+    public static String get(String key) {
+        return load().get(key);
+    }
+
+    public static void set(String key, String value) {
+        Map<String, String> settings = load();
+        settings.put(key, value);
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            contents.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        Utils.writeContents(CONFIG_FILE, contents.toString());
+    }
+
+    public static boolean chunking() {
+        return "true".equals(get(CHUNKING));
+    }
+
+    /** Returns the configured parallelism, defaulting to the number of processors. */
+    public static int parallelism() {
+        String value = get(PARALLELISM);
+        if (value != null) {
+            try {
+                int parallelism = Integer.parseInt(value.trim());
+                if (parallelism > 0) {
+                    return parallelism;
+                }
+            } catch (NumberFormatException excp) {
+                // Fall back to the default below.
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Returns the number of days reflog entries are kept. */
+    public static int reflogExpire() {
+        return days(REFLOG_EXPIRE, 90);
+    }
+
+    /** Returns the number of days reflog entries no branch reaches are kept. */
+    public static int reflogExpireUnreachable() {
+        return days(REFLOG_EXPIRE_UNREACHABLE, 30);
+    }
+
+    /** Returns the number of days KEY is set to, or DEFAULTDAYS if it is not set to one. */
+    private static int days(String key, int defaultDays) {
+        String value = get(key);
+        if (value != null) {
+            try {
+                int days = Integer.parseInt(value.trim());
+                if (days >= 0) {
+                    return days;
+                }
+            } catch (NumberFormatException excp) {
+                // Fall back to the default below.
+            }
+        }
+        return defaultDays;
+    }
+}
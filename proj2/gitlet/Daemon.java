@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+/**
+ * A long-lived gitlet process that runs commands sent to it over a loopback
+ * socket, so that they skip JVM startup and find commits, packs and blob
+ * headers already in memory.  It serves the repository it was started in,
+ * one command at a time.
+ *
+ * While running, the daemon keeps its port and a random token in
+ * .gitlet/daemon; a client must present the token.  Protocol: the client
+ * sends the token, its working directory and its arguments, each as
+ * modified UTF-8 strings after an argument count; the daemon answers with a
+ * status and the command's output.
+ *
+ * @author ZonePG
+ */
+public class Daemon {
+
+    public static final File DAEMON_FILE = Utils.join(Repository.GITLET_DIR, "daemon");
+
+    private static final int OK = 0;
+    /** The daemon serves another directory; the client should run the command itself. */
+    private static final int REFUSED = 1;
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /** Serves commands until told to stop. */
+    public static void serve() {
+        if (DAEMON_FILE.exists() && forward(new String[]{"daemon", "ping"}, null)) {
+            Utils.exitWithMessage("A daemon is already running.");
+        }
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        String token = Utils.bytesToHex(secret, 0, secret.length);
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Utils.writeContents(DAEMON_FILE, server.getLocalPort() + "\n" + token + "\n");
+            Runtime.getRuntime().addShutdownHook(new Thread(DAEMON_FILE::delete));
+            boolean running = true;
+            while (running) {
+                try (Socket socket = server.accept()) {
+                    running = handle(socket, token);
+                } catch (IOException excp) {
+                    // A client that went away mid-command does not stop the daemon.
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            DAEMON_FILE.delete();
+        }
+    }
+
+    /** Runs the command sent over SOCKET, returning false if it asked the daemon to stop. */
+    private static boolean handle(Socket socket, String token) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        if (!in.readUTF().equals(token)) {
+            return true;
+        }
+        String cwd = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        if (!cwd.equals(Repository.CWD.getPath())) {
+            out.writeInt(REFUSED);
+            out.flush();
+            return true;
+        }
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (args.length > 0 && args[0].equals("daemon")) {
+            if (args.length == 1) {
+                output.writeBytes("A daemon is already running.\n".getBytes());
+            }
+        } else {
+            run(args, output);
+        }
+        out.writeInt(OK);
+        out.writeInt(output.size());
+        output.writeTo(out);
+        out.flush();
+        return !stop;
+    }
+
+    /** Runs the command ARGS, collecting what it prints in OUTPUT. */
+    private static void run(String[] args, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        try {
+            Main.run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            // Run directly, the command would print nothing of this to standard output.
+            excp.printStackTrace();
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Sends the command ARGS to the daemon serving this directory and copies
+     * its output to OUT, if OUT is not null.  Returns false if there is no
+     * such daemon, in which case the command has not been run.
+     */
+    public static boolean forward(String[] args, PrintStream out) {
+        if (!DAEMON_FILE.exists()) {
+            return false;
+        }
+        String[] fields = Utils.readContentsAsString(DAEMON_FILE).split("\n");
+        if (fields.length < 2) {
+            return false;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(fields[0])), CONNECT_TIMEOUT);
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            request.writeUTF(fields[1]);
+            request.writeUTF(Repository.CWD.getPath());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            DataInputStream response = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            if (response.readInt() != OK) {
+                return false;
+            }
+            byte[] output = new byte[response.readInt()];
+            response.readFully(output);
+            if (out != null) {
+                out.write(output);
+                out.flush();
+            }
+            return true;
+        } catch (IOException | NumberFormatException excp) {
+            // A daemon that died without cleaning up leaves its file behind.
+            return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * Encodes one byte array as a list of copy/insert instructions against a base
+ * byte array, in the spirit of git's pack deltas.
+ *
+ * A delta starts with the lengths of the base and of the result, each as a
+ * varint.  Then follow instructions: an INSERT opcode, a varint length and
+ * that many literal bytes; or a COPY opcode, a varint offset into the base and
+ * a varint length.
+ *
+ * @author ZonePG
+ */
+class Delta {
+
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+    /** Length of the base blocks that are indexed to find matches. */
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        int power = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            power *= PRIME;
+        }
+        int insertStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer candidate = blocks.get(h);
+            if (candidate != null && matches(base, candidate, target, i)) {
+                int baseStart = candidate;
+                int targetStart = i;
+                // Grow the match backwards into pending literals, then forwards.
+                while (baseStart > 0 && targetStart > insertStart
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInsert(out, target, insertStart, targetStart);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, end - targetStart);
+                insertStart = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+            }
+            i += 1;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not apply to its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int out = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, out, length);
+                out += length;
+            } else {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, out, length);
+                pos[0] += length;
+                out += length;
+            }
+        }
+        return result;
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + bytes[k];
+        }
+        return h;
+    }
+
+    private static boolean matches(byte[] base, int baseStart, byte[] target, int targetStart) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[baseStart + k] != target[targetStart + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(byte[] bytes, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            int b = bytes[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
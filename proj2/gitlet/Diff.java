@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Computes line diffs, in the manner of git's histogram diff.
+ *
+ * Within each region still to be compared, the line that occurs least often
+ * in the old side is used as an anchor: the longest run of matching lines
+ * through one of its occurrences is kept, and the regions before and after it
+ * are compared in turn.  A region with no rare enough line in common is handed
+ * to Myers' linear-space algorithm, which finds a shortest edit script by
+ * searching from both ends for a middle snake.  Lines are compared as
+ * interned integers, and every buffer is sized by the input, so memory stays
+ * linear in the length of the files.
+ *
+ * @author ZonePG
+ */
+class Diff {
+
+    /** A region where old lines [aStart, aEnd) became new lines [bStart, bEnd). */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Lines occurring more often than this are not used as histogram anchors. */
+    private static final int MAX_CHAIN = 64;
+    /**
+     * Edit distance past which Myers' search gives up on a shortest script and
+     * splits the region at the furthest point reached, as xdiff does, so that
+     * files with little in common still diff in near-linear time.
+     */
+    private static final int MAX_COST = 1024;
+    private static final int NONE = -1;
+
+    private final int[] a;
+    private final int[] b;
+    /** Runs of matching lines, as triples of old start, new start and length. */
+    private final List<int[]> matches = new ArrayList<>();
+    /** Whether the last region anchor looked at had any line in common. */
+    private boolean common;
+
+    // Histogram buffers: per line, its count in the region and its last
+    // occurrence there; per old position, the previous occurrence of its line.
+    private final int[] count;
+    private final int[] last;
+    private final int[] previous;
+
+    // Myers buffers, indexed by diagonal.
+    private final int[] forward;
+    private final int[] backward;
+
+    private Diff(int[] a, int[] b, int lineCount) {
+        this.a = a;
+        this.b = b;
+        count = new int[lineCount];
+        last = new int[lineCount];
+        Arrays.fill(last, NONE);
+        previous = new int[a.length];
+        forward = new int[a.length + b.length + 3];
+        backward = new int[a.length + b.length + 3];
+    }
+
+    /** Returns the edits that turn lines OLDLINES into NEWLINES, in order. */
+    static List<Edit> diff(List<String> oldLines, List<String> newLines) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] a = intern(oldLines, ids);
+        int[] b = intern(newLines, ids);
+        Diff diff = new Diff(a, b, ids.size());
+        diff.compare(0, a.length, 0, b.length);
+        return diff.edits();
+    }
+
+    /**
+     * Returns the hunks of a unified diff from OLDLINES to NEWLINES, each
+     * edit shown with CONTEXT unchanged lines around it, as git diff does.
+     */
+    static String unified(List<String> oldLines, List<String> newLines, int context) {
+        List<Edit> edits = diff(oldLines, newLines);
+        StringBuilder result = new StringBuilder();
+        int first = 0;
+        while (first < edits.size()) {
+            // Edits closer together than twice the context share one hunk.
+            int last = first;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * context) {
+                last += 1;
+            }
+            int aStart = Math.max(0, edits.get(first).aStart - context);
+            int aEnd = Math.min(oldLines.size(), edits.get(last).aEnd + context);
+            int bStart = edits.get(first).bStart - (edits.get(first).aStart - aStart);
+            int bEnd = edits.get(last).bEnd + (aEnd - edits.get(last).aEnd);
+            result.append("@@ -").append(range(aStart, aEnd - aStart))
+                    .append(" +").append(range(bStart, bEnd - bStart)).append(" @@\n");
+            int pos = aStart;
+            for (int k = first; k <= last; k += 1) {
+                Edit edit = edits.get(k);
+                appendLines(result, ' ', oldLines, pos, edit.aStart);
+                appendLines(result, '-', oldLines, edit.aStart, edit.aEnd);
+                appendLines(result, '+', newLines, edit.bStart, edit.bEnd);
+                pos = edit.aEnd;
+            }
+            appendLines(result, ' ', oldLines, pos, aEnd);
+            first = last + 1;
+        }
+        return result.toString();
+    }
+
+    /** Returns a hunk range starting at line START (from 0) of COUNT lines, as git writes it. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        // An empty range names the line before it.
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static void appendLines(StringBuilder result, char prefix, List<String> lines,
+            int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            String line = lines.get(k);
+            result.append(prefix).append(line);
+            if (!line.endsWith("\n")) {
+                result.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Splits TEXT into lines, each keeping its terminating newline if it has one. */
+    static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            result.add(text.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    private static int[] intern(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer id = ids.get(lines.get(i));
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines.get(i), id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /** Finds the matching runs between A[aLo, aHi) and B[bLo, bHi). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        // Regions are kept on an explicit stack, as anchors may peel off one line at a time.
+        Deque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[]{aLo, aHi, bLo, bHi});
+        while (!pending.isEmpty()) {
+            int[] region = trim(pending.pop());
+            if (region == null) {
+                continue;
+            }
+            int[] anchor = anchor(region[0], region[1], region[2], region[3]);
+            if (anchor == null) {
+                // With nothing in common the whole region is one edit.
+                if (common) {
+                    myers(region[0], region[1], region[2], region[3]);
+                }
+                continue;
+            }
+            matches.add(anchor);
+            pending.push(new int[]{anchor[0] + anchor[2], region[1],
+                anchor[1] + anchor[2], region[3]});
+            pending.push(new int[]{region[0], anchor[0], region[2], anchor[1]});
+        }
+    }
+
+    /**
+     * Records the common prefix and suffix of REGION as matches, returning what
+     * is left, or null if either side of it is empty.
+     */
+    private int[] trim(int[] region) {
+        int aLo = region[0];
+        int aHi = region[1];
+        int bLo = region[2];
+        int bHi = region[3];
+        int prefix = 0;
+        while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix]) {
+            prefix += 1;
+        }
+        if (prefix > 0) {
+            matches.add(new int[]{aLo, bLo, prefix});
+            aLo += prefix;
+            bLo += prefix;
+        }
+        int suffix = 0;
+        while (aLo < aHi - suffix && bLo < bHi - suffix
+                && a[aHi - suffix - 1] == b[bHi - suffix - 1]) {
+            suffix += 1;
+        }
+        if (suffix > 0) {
+            aHi -= suffix;
+            bHi -= suffix;
+            matches.add(new int[]{aHi, bHi, suffix});
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return null;
+        }
+        return new int[]{aLo, aHi, bLo, bHi};
+    }
+
+    /**
+     * Returns the longest run of matching lines through an occurrence of the
+     * rarest old line that also appears in the new region, or null if every
+     * common line occurs more than MAX_CHAIN times.
+     */
+    private int[] anchor(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] += 1;
+            previous[i] = last[a[i]];
+            last[a[i]] = i;
+        }
+        int[] best = null;
+        int bestCount = MAX_CHAIN;
+        common = false;
+        int j = bLo;
+        while (j < bHi) {
+            int line = b[j];
+            common |= count[line] > 0;
+            if (count[line] == 0 || count[line] > bestCount) {
+                j += 1;
+                continue;
+            }
+            int next = j + 1;
+            for (int i = last[line]; i != NONE; i = previous[i]) {
+                int start = 0;
+                while (i - start > aLo && j - start > bLo && a[i - start - 1] == b[j - start - 1]) {
+                    start += 1;
+                }
+                int end = 1;
+                while (i + end < aHi && j + end < bHi && a[i + end] == b[j + end]) {
+                    end += 1;
+                }
+                int length = start + end;
+                int rarest = count[line];
+                for (int k = i - start; k < i + end; k += 1) {
+                    rarest = Math.min(rarest, count[a[k]]);
+                }
+                if (best == null || rarest < bestCount
+                        || (rarest == bestCount && length > best[2])) {
+                    best = new int[]{i - start, j - start, length};
+                    bestCount = rarest;
+                }
+                next = Math.max(next, j + end);
+            }
+            // Lines inside the run just found cannot start a longer one.
+            j = next;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 0;
+            last[a[i]] = NONE;
+        }
+        return best;
+    }
+
+    /** Finds a shortest edit script between A[aLo, aHi) and B[bLo, bHi). */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        int[] region = trim(new int[]{aLo, aHi, bLo, bHi});
+        if (region == null) {
+            return;
+        }
+        aLo = region[0];
+        aHi = region[1];
+        bLo = region[2];
+        bHi = region[3];
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        myers(aLo, aLo + snake[0], bLo, bLo + snake[1]);
+        if (snake[2] > snake[0]) {
+            matches.add(new int[]{aLo + snake[0], bLo + snake[1], snake[2] - snake[0]});
+        }
+        myers(aLo + snake[2], aHi, bLo + snake[3], bHi);
+    }
+
+    /**
+     * Returns the middle snake of a shortest edit script between A[aLo, aHi)
+     * and B[bLo, bHi), as its start and end points relative to the region.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + backward[offset + delta - k] >= n) {
+                    return new int[]{startX, startY, x, y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (!odd && k >= delta - d && k <= delta + d
+                        && x + forward[offset + delta - k] >= n) {
+                    return new int[]{n - x, m - y, n - startX, m - startY};
+                }
+            }
+            if (d >= MAX_COST) {
+                return furthest(d, n, m, offset);
+            }
+        }
+        throw new IllegalStateException("No middle snake found.");
+    }
+
+    /**
+     * Returns, as an empty snake, the point inside the N by M region that
+     * the forward search reached furthest along after D steps.
+     */
+    private int[] furthest(int d, int n, int m, int offset) {
+        int bestX = 0;
+        int bestY = 0;
+        for (int k = -d; k <= d; k += 2) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        return new int[]{bestX, bestY, bestX, bestY};
+    }
+
+    /** Turns the matching runs found into the edits between them. */
+    private List<Edit> edits() {
+        matches.sort((x, y) -> Integer.compare(x[0], y[0]));
+        List<Edit> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        for (int[] match : matches) {
+            if (match[0] > i || match[1] > j) {
+                result.add(new Edit(i, match[0], j, match[1]));
+            }
+            i = match[0] + match[2];
+            j = match[1] + match[2];
+        }
+        if (i < a.length || j < b.length) {
+            result.add(new Edit(i, a.length, j, b.length));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times Diff on generated files larger than DiffTest uses, checking as it
+ * goes that its edits really turn one file into the other.  Run as
+ *
+ *   java gitlet.DiffBenchmark [lines] [edits] [rounds]
+ *
+ * which defaults to 100000 lines with 1000 scattered edits, and also times a
+ * pair of files with nothing in common and a file full of repeated lines.
+ *
+ * @author ZonePG
+ */
+class DiffBenchmark {
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        Random random = new Random(42);
+
+        List<String> original = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            original.add("line " + random.nextInt(lines * 10) + "\n");
+        }
+        List<String> edited = new ArrayList<>(original);
+        for (int i = 0; i < edits; i += 1) {
+            int pos = random.nextInt(edited.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited.set(pos, "changed " + i + "\n");
+                    break;
+                case 1:
+                    edited.add(pos, "inserted " + i + "\n");
+                    break;
+                default:
+                    edited.remove(pos);
+                    break;
+            }
+        }
+        run("scattered edits", original, edited, rounds);
+
+        List<String> unrelated = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            unrelated.add("other " + i + "\n");
+        }
+        run("nothing in common", original, unrelated, rounds);
+
+        List<String> repetitive = new ArrayList<>();
+        List<String> repetitiveEdited = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            String line = (i % 7 == 0 ? "}" : "    x += " + (i % 5) + ";") + "\n";
+            repetitive.add(line);
+            repetitiveEdited.add(random.nextInt(50) == 0 ? "    y -= 1;\n" : line);
+        }
+        run("repeated lines", repetitive, repetitiveEdited, rounds);
+    }
+
+    private static void run(String name, List<String> a, List<String> b, int rounds) {
+        List<Diff.Edit> edits = null;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round += 1) {
+            long start = System.nanoTime();
+            edits = Diff.diff(a, b);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (!apply(a, b, edits).equals(b)) {
+            throw new IllegalStateException(name + ": edits do not reproduce the new file.");
+        }
+        int changed = 0;
+        for (Diff.Edit edit : edits) {
+            changed += (edit.aEnd - edit.aStart) + (edit.bEnd - edit.bStart);
+        }
+        System.out.println(String.format("%s: %d x %d lines, %d edits touching %d lines, %.1f ms",
+                name, a.size(), b.size(), edits.size(), changed, best / 1e6));
+    }
+
+    /** Returns A with EDITS applied, taking inserted lines from B. */
+    private static List<String> apply(List<String> a, List<String> b, List<Diff.Edit> edits) {
+        List<String> result = new ArrayList<>();
+        int pos = 0;
+        for (Diff.Edit edit : edits) {
+            result.addAll(a.subList(pos, edit.aStart));
+            result.addAll(b.subList(edit.bStart, edit.bEnd));
+            pos = edit.aEnd;
+        }
+        result.addAll(a.subList(pos, a.size()));
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the edits Diff finds turn one file into the other, and that
+ * unified diffs are laid out as git lays them out.  DiffBenchmark times the
+ * same kinds of input at a larger size.
+ *
+ * @author ZonePG
+ */
+public class DiffTest {
+
+    @Test
+    public void identicalFilesHaveNoEdits() {
+        List<String> lines = Diff.lines("a\nb\nc\n");
+        assertTrue(Diff.diff(lines, lines).isEmpty());
+    }
+
+    @Test
+    public void editsAgainstEmptyFiles() {
+        List<String> empty = new ArrayList<>();
+        List<String> lines = Diff.lines("a\nb\n");
+        assertReproduces(empty, lines);
+        assertReproduces(lines, empty);
+    }
+
+    @Test
+    public void scatteredEditsAreReproduced() {
+        Random random = new Random(42);
+        List<String> original = new ArrayList<>();
+        for (int i = 0; i < 2000; i += 1) {
+            original.add("line " + random.nextInt(20000) + "\n");
+        }
+        List<String> edited = new ArrayList<>(original);
+        for (int i = 0; i < 100; i += 1) {
+            int pos = random.nextInt(edited.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited.set(pos, "changed " + i + "\n");
+                    break;
+                case 1:
+                    edited.add(pos, "inserted " + i + "\n");
+                    break;
+                default:
+                    edited.remove(pos);
+                    break;
+            }
+        }
+        assertReproduces(original, edited);
+    }
+
+    @Test
+    public void unrelatedAndRepetitiveFilesAreReproduced() {
+        Random random = new Random(7);
+        List<String> repetitive = new ArrayList<>();
+        List<String> edited = new ArrayList<>();
+        List<String> unrelated = new ArrayList<>();
+        for (int i = 0; i < 2000; i += 1) {
+            String line = (i % 7 == 0 ? "}" : "    x += " + (i % 5) + ";") + "\n";
+            repetitive.add(line);
+            edited.add(random.nextInt(50) == 0 ? "    y -= 1;\n" : line);
+            unrelated.add("other " + i + "\n");
+        }
+        assertReproduces(repetitive, edited);
+        assertReproduces(repetitive, unrelated);
+    }
+
+    @Test
+    public void unifiedDiffHasContextAndRanges() {
+        List<String> a = Diff.lines("1\n2\n3\n4\n5\n6\n7\n8\n");
+        List<String> b = Diff.lines("1\n2\n3\n4\nfive\n6\n7\n8\n");
+        assertEquals("@@ -2,7 +2,7 @@\n 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n",
+                Diff.unified(a, b, 3));
+    }
+
+    @Test
+    public void linesKeepTheirNewlines() {
+        assertEquals(Arrays.asList("a\n", "b"), Diff.lines("a\nb"));
+        assertTrue(Diff.lines("").isEmpty());
+    }
+
+    /** Checks that the edits from A to B, applied to A, give B. */
+    private static void assertReproduces(List<String> a, List<String> b) {
+        List<String> result = new ArrayList<>();
+        int pos = 0;
+        for (Diff.Edit edit : Diff.diff(a, b)) {
+            assertTrue(edit.aStart >= pos);
+            result.addAll(a.subList(pos, edit.aStart));
+            result.addAll(b.subList(edit.bStart, edit.bEnd));
+            pos = edit.aEnd;
+        }
+        result.addAll(a.subList(pos, a.size()));
+        assertEquals(b, result);
+    }
+}
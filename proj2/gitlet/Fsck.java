@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that every object hashes to its id and that everything the
+ * branches, the reflogs and the staging area refer to is present, as the
+ * fsck command.
+ *
+ * Objects are verified in parallel on the Workers pool, one at a time per
+ * worker and straight from the store, so memory does not grow with the
+ * size of the repository: streamed and chunked blobs are hashed in pieces,
+ * and the bookkeeping is a few bits per object (see ObjectNumbering).
+ * While an object is verified, the objects it refers to are marked as
+ * referenced.  The walk from the branches then marks what is reachable and
+ * reports what is missing, and objects that are neither reachable nor
+ * referenced by another object are reported as dangling.
+ *
+ * A shallow clone's history ends at its shallow commits, and a partial
+ * clone may leave out any blob, so neither counts as missing.
+ *
+ * @author ZonePG
+ */
+class Fsck {
+
+    private final ObjectNumbering commits = new ObjectNumbering(Commit.STORE);
+    private final ObjectNumbering trees = new ObjectNumbering(Tree.STORE);
+    private final ObjectNumbering blobs = new ObjectNumbering(Blob.STORE);
+    private final ObjectNumbering chunks = new ObjectNumbering(Blob.CHUNKS);
+    private final BitSet referencedCommits = new BitSet(commits.size());
+    private final BitSet referencedTrees = new BitSet(trees.size());
+    private final BitSet referencedBlobs = new BitSet(blobs.size());
+    private final BitSet referencedChunks = new BitSet(chunks.size());
+    private final BitSet reachableCommits = new BitSet(commits.size());
+    private final BitSet reachableTrees = new BitSet(trees.size());
+    private final BitSet reachableBlobs = new BitSet(blobs.size());
+    private final BitSet reachableChunks = new BitSet(chunks.size());
+    private final Set<String> shallow = Shallow.load();
+    private final boolean partial = Config.get(Promisor.PROMISOR) != null;
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+
+    /** Returns the number of objects checked. */
+    int size() {
+        return commits.size() + trees.size() + blobs.size() + chunks.size();
+    }
+
+    /** Returns the problems found, one line each. */
+    List<String> getProblems() {
+        return problems;
+    }
+
+    /**
+     * Checks the hash of every object, reporting those that are damaged, in
+     * order of kind of problem and then of id.
+     */
+    void verifyObjects() {
+        Workers.forEach(numbers(commits.size()), this::verifyCommit);
+        Workers.forEach(numbers(trees.size()), this::verifyTree);
+        Workers.forEach(numbers(blobs.size()), this::verifyBlob);
+        Workers.forEach(numbers(chunks.size()), this::verifyChunk);
+        Collections.sort(problems);
+    }
+
+    private void verifyCommit(int number) {
+        String id = commits.getId(number);
+        try {
+            byte[] record = Commit.STORE.get(id);
+            if (!Commit.idOf(record).equals(id)) {
+                problems.add("hash mismatch in commit " + id);
+                return;
+            }
+            Commit commit = Commit.load(Commit.STORE, id);
+            mark(commits, referencedCommits, commit.getFirstParentId());
+            mark(commits, referencedCommits, commit.getSecondParentId());
+            if (commit.isLegacy()) {
+                for (String blobId : commit.getBlobs().values()) {
+                    mark(blobs, referencedBlobs, blobId);
+                }
+            } else {
+                mark(trees, referencedTrees, commit.getTreeId());
+            }
+        } catch (RuntimeException excp) {
+            problems.add("corrupt commit " + id);
+        }
+    }
+
+    private void verifyTree(int number) {
+        String id = trees.getId(number);
+        try {
+            if (!Utils.sha1((Object) Tree.STORE.get(id)).equals(id)) {
+                problems.add("hash mismatch in tree " + id);
+                return;
+            }
+            Tree tree = Tree.load(id);
+            for (String blobId : tree.getBlobs().values()) {
+                mark(blobs, referencedBlobs, blobId);
+            }
+            for (String subtreeId : tree.getTrees().values()) {
+                mark(trees, referencedTrees, subtreeId);
+            }
+        } catch (RuntimeException excp) {
+            problems.add("corrupt tree " + id);
+        }
+    }
+
+    private void verifyBlob(int number) {
+        String id = blobs.getId(number);
+        try {
+            mark(blobs, referencedBlobs, Blob.deltaBase(Blob.STORE, id));
+            for (String chunkId : Blob.chunkIds(Blob.STORE, id)) {
+                mark(chunks, referencedChunks, chunkId);
+            }
+            if (!id.equals(Blob.contentsHash(id))) {
+                problems.add("hash mismatch in blob " + id);
+            }
+        } catch (RuntimeException excp) {
+            problems.add("corrupt blob " + id);
+        }
+    }
+
+    private void verifyChunk(int number) {
+        String id = chunks.getId(number);
+        try {
+            if (!Utils.sha1((Object) Utils.inflate(Blob.CHUNKS.get(id), 0)).equals(id)) {
+                problems.add("hash mismatch in chunk " + id);
+            }
+        } catch (RuntimeException excp) {
+            problems.add("corrupt chunk " + id);
+        }
+    }
+
+    /** Marks object ID, if it is in NUMBERING, in MARKED, which workers share. */
+    private static void mark(ObjectNumbering numbering, BitSet marked, String id) {
+        int number = id == null ? -1 : numbering.indexOf(id);
+        if (number >= 0) {
+            synchronized (marked) {
+                marked.set(number);
+            }
+        }
+    }
+
+    /**
+     * Walks from every branch, every commit in an unexpired reflog entry and
+     * the files staged for addition, reporting the objects they need that are
+     * missing.
+     */
+    void checkConnectivity() {
+        Deque<String> pending = new ArrayDeque<>();
+        for (String branch : Branch.allNames()) {
+            String commitId = Branch.getCommitId(branch);
+            if (commits.indexOf(commitId) < 0) {
+                problems.add("missing commit " + commitId + " (branch " + branch + ")");
+            } else {
+                pending.push(commitId);
+            }
+        }
+        for (String commitId : Reflog.commitIds()) {
+            if (commits.indexOf(commitId) < 0) {
+                problems.add("missing commit " + commitId + " (reflog)");
+            } else {
+                pending.push(commitId);
+            }
+        }
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            int number = commits.indexOf(id);
+            if (number < 0) {
+                problems.add("missing commit " + id);
+                continue;
+            }
+            if (reachableCommits.get(number)) {
+                continue;
+            }
+            reachableCommits.set(number);
+            Commit commit;
+            try {
+                commit = Commit.load(Commit.STORE, id);
+            } catch (RuntimeException excp) {
+                // Already reported by verifyObjects.
+                continue;
+            }
+            if (!shallow.contains(id)) {
+                for (String parentId : new String[]{commit.getSecondParentId(),
+                        commit.getFirstParentId()}) {
+                    if (parentId != null) {
+                        pending.push(parentId);
+                    }
+                }
+            }
+            if (commit.isLegacy()) {
+                for (String blobId : commit.getBlobs().values()) {
+                    walkBlob(blobId);
+                }
+            } else {
+                walkTree(commit.getTreeId());
+            }
+        }
+        for (String blobId : StagingArea.load().getAddition().values()) {
+            walkBlob(blobId);
+        }
+    }
+
+    private void walkTree(String treeId) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(treeId);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            int number = trees.indexOf(id);
+            if (number < 0) {
+                problems.add("missing tree " + id);
+                continue;
+            }
+            if (reachableTrees.get(number)) {
+                continue;
+            }
+            reachableTrees.set(number);
+            Tree tree;
+            try {
+                tree = Tree.load(id);
+            } catch (RuntimeException excp) {
+                continue;
+            }
+            for (String blobId : tree.getBlobs().values()) {
+                walkBlob(blobId);
+            }
+            for (String subtreeId : tree.getTrees().values()) {
+                pending.push(subtreeId);
+            }
+        }
+    }
+
+    /** Marks blob BLOBID reachable, with its delta bases and chunks. */
+    private void walkBlob(String blobId) {
+        // A partial clone fetches the blobs it left out when they are needed.
+        boolean optional = partial;
+        while (blobId != null) {
+            int number = blobs.indexOf(blobId);
+            if (number < 0) {
+                if (!optional) {
+                    problems.add("missing blob " + blobId);
+                }
+                return;
+            }
+            if (reachableBlobs.get(number)) {
+                return;
+            }
+            reachableBlobs.set(number);
+            for (String chunkId : Blob.chunkIds(Blob.STORE, blobId)) {
+                int chunk = chunks.indexOf(chunkId);
+                if (chunk < 0) {
+                    problems.add("missing chunk " + chunkId);
+                } else {
+                    reachableChunks.set(chunk);
+                }
+            }
+            // Delta bases are always copied along with the blobs built on them.
+            optional = false;
+            blobId = Blob.deltaBase(Blob.STORE, blobId);
+        }
+    }
+
+    /**
+     * Returns the objects that are neither reachable nor referenced by any
+     * other object, as "dangling TYPE ID" lines.
+     */
+    List<String> getDangling() {
+        List<String> result = new ArrayList<>();
+        dangling("commit", commits, reachableCommits, referencedCommits, result);
+        dangling("tree", trees, reachableTrees, referencedTrees, result);
+        dangling("blob", blobs, reachableBlobs, referencedBlobs, result);
+        dangling("chunk", chunks, reachableChunks, referencedChunks, result);
+        return result;
+    }
+
+    private static void dangling(String type, ObjectNumbering numbering, BitSet reachable,
+            BitSet referenced, List<String> result) {
+        BitSet used = (BitSet) reachable.clone();
+        used.or(referenced);
+        for (int number = used.nextClearBit(0); number < numbering.size();
+                number = used.nextClearBit(number + 1)) {
+            result.add("dangling " + type + " " + numbering.getId(number));
+        }
+    }
+
+    /** Returns the list 0, 1, ..., SIZE - 1, without storing it. */
+    private static List<Integer> numbers(int size) {
+        return new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return index;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -5,11 +5,21 @@ import java.io.File;
 public class HEAD {
     public static final File HEAD_FILE = Utils.join(Repository.GITLET_DIR, "head");
 
-    public static void setBranchName(String branchName) {
-        Utils.writeContents(HEAD_FILE, branchName);
+    /**
+     * Makes BRANCHNAME the current branch, recording REASON in HEAD's reflog
+     * if that is a different branch.
+     */
+    public static void setBranchName(String branchName, String reason) {
+        String oldBranchName = Journal.exists(HEAD_FILE) ? getBranchName() : null;
+        Journal.write(HEAD_FILE, branchName);
+        String newId = Branch.getCommitId(branchName);
+        if (!branchName.equals(oldBranchName) && newId != null) {
+            Reflog.recordHead(oldBranchName == null ? null : Branch.getCommitId(oldBranchName),
+                    newId, reason);
+        }
     }
 
     public static String getBranchName() {
-        return Utils.readContentsAsString(HEAD_FILE);
+        return Journal.readContentsAsString(HEAD_FILE);
     }
 }
@@ -0,0 +1,362 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal for the small mutable files of a repository: HEAD,
+ * branches, the staging area and remotes.  Writes made during a command are
+ * buffered, and read back from the buffer by later reads in the same command,
+ * until commit writes them out as one unit:
+ *
+ *   1. the whole batch is written to .gitlet/journal and forced to disk once;
+ *   2. each file is replaced by writing a temporary file and renaming it over
+ *      the original, so readers see either the old or the new contents;
+ *   3. the replaced files are forced to disk, and the journal is deleted.
+ *
+ * Appends, such as reflog entries, are buffered with the length the file
+ * had before them and written in place at that offset rather than by
+ * rewriting the file, so their cost does not grow with the file; applying
+ * one again after an interruption first truncates the file back to that
+ * length, so it is written exactly once.
+ *
+ * A journal found at startup belongs to a command that was interrupted
+ * after step 1, and is applied again; one that is incomplete (its checksum
+ * does not match) belongs to a command that never committed, and is dropped.
+ * Objects are content-addressed and written before the journal, so a ref
+ * never points at an object that is not yet on disk.
+ *
+ * Layout: magic, entry count, then per entry (path, kind, offset for
+ * appends, length, contents), then the CRC-32 of everything before it.
+ * The kind is 0 for a write, 1 for a delete and 2 for an append.
+ *
+ * @author ZonePG
+ */
+public class Journal {
+
+    public static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "journal");
+
+    private static final int MAGIC = 0x474c4a4e;
+    private static final byte WRITE = 0;
+    private static final byte DELETE = 1;
+    private static final byte APPEND = 2;
+
+    /** Buffered writes, by file; null contents mean the file is to be deleted. */
+    private static final Map<File, byte[]> PENDING = new LinkedHashMap<>();
+    /** The offsets of the files in PENDING whose contents are to be appended. */
+    private static final Map<File, Long> OFFSETS = new HashMap<>();
+
+    /** Buffers writing CONTENTS to FILE. */
+    public static synchronized void write(File file, byte[] contents) {
+        PENDING.put(file.getAbsoluteFile(), contents);
+        OFFSETS.remove(file.getAbsoluteFile());
+    }
+
+    /** Buffers appending the UTF-8 encoding of CONTENTS to FILE, which need not exist. */
+    public static synchronized void append(File file, String contents) {
+        File key = file.getAbsoluteFile();
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        byte[] pending = PENDING.get(key);
+        if (pending == null) {
+            if (!PENDING.containsKey(key)) {
+                OFFSETS.put(key, file.length());
+            }
+            PENDING.put(key, bytes);
+            return;
+        }
+        byte[] joined = Arrays.copyOf(pending, pending.length + bytes.length);
+        System.arraycopy(bytes, 0, joined, pending.length, bytes.length);
+        PENDING.put(key, joined);
+    }
+
+    /** Buffers writing the UTF-8 encoding of CONTENTS to FILE. */
+    public static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Buffers deleting FILE. */
+    public static synchronized void delete(File file) {
+        PENDING.put(file.getAbsoluteFile(), null);
+        OFFSETS.remove(file.getAbsoluteFile());
+    }
+
+    /** Returns true iff FILE exists, counting buffered writes. */
+    public static synchronized boolean exists(File file) {
+        File key = file.getAbsoluteFile();
+        if (PENDING.containsKey(key)) {
+            return PENDING.get(key) != null;
+        }
+        return file.exists();
+    }
+
+    /** Returns the contents of FILE, counting buffered writes. */
+    public static synchronized byte[] readContents(File file) {
+        File key = file.getAbsoluteFile();
+        if (PENDING.containsKey(key)) {
+            byte[] contents = PENDING.get(key);
+            if (contents == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            if (OFFSETS.containsKey(key)) {
+                byte[] before = file.exists() ? Utils.readContents(file) : new byte[0];
+                byte[] joined = Arrays.copyOf(before, before.length + contents.length);
+                System.arraycopy(contents, 0, joined, before.length, contents.length);
+                return joined;
+            }
+            return contents;
+        }
+        return Utils.readContents(file);
+    }
+
+    /** Returns the contents of FILE as a string, counting buffered writes. */
+    public static String readContentsAsString(File file) {
+        return new String(readContents(file), StandardCharsets.UTF_8);
+    }
+
+    /** Forgets all buffered writes, as when a command fails. */
+    public static synchronized void discard() {
+        PENDING.clear();
+        OFFSETS.clear();
+    }
+
+    /** Writes out all buffered writes as one unit. */
+    public static synchronized void commit() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        commit(JOURNAL_FILE, PENDING, OFFSETS);
+        PENDING.clear();
+        OFFSETS.clear();
+    }
+
+    /** Finishes the work of a command that was interrupted while committing, if any. */
+    public static synchronized void recover() {
+        recover(JOURNAL_FILE);
+    }
+
+    /**
+     * Finishes the work of a command interrupted while committing through
+     * JOURNALFILE, which may belong to another repository, if any.
+     */
+    public static void recover(File journalFile) {
+        if (!journalFile.exists()) {
+            return;
+        }
+        Map<File, Long> offsets = new HashMap<>();
+        Map<File, byte[]> entries = decode(Utils.readContents(journalFile), offsets);
+        if (entries == null) {
+            journalFile.delete();
+            return;
+        }
+        apply(journalFile, entries, offsets);
+    }
+
+    /**
+     * Writes to the files of another repository, as in a push, made as one
+     * unit through that repository's own journal, so that if they are
+     * interrupted the next command run there finishes them.  Unlike the
+     * writes of the current command, they are not read back before commit.
+     */
+    public static class Batch {
+        private final File journalFile;
+        private final Map<File, byte[]> entries = new LinkedHashMap<>();
+        private final Map<File, Long> offsets = new HashMap<>();
+
+        /** Returns an empty batch for the repository whose .gitlet directory is GITDIR. */
+        public Batch(File gitDir) {
+            journalFile = Utils.join(gitDir, JOURNAL_FILE.getName());
+        }
+
+        /** Adds writing the UTF-8 encoding of CONTENTS to FILE. */
+        public void write(File file, String contents) {
+            entries.put(file.getAbsoluteFile(), contents.getBytes(StandardCharsets.UTF_8));
+            offsets.remove(file.getAbsoluteFile());
+        }
+
+        /** Adds appending the UTF-8 encoding of CONTENTS to FILE, which need not exist. */
+        public void append(File file, String contents) {
+            File key = file.getAbsoluteFile();
+            byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+            byte[] pending = entries.get(key);
+            if (pending == null) {
+                offsets.put(key, file.length());
+                entries.put(key, bytes);
+                return;
+            }
+            byte[] joined = Arrays.copyOf(pending, pending.length + bytes.length);
+            System.arraycopy(bytes, 0, joined, pending.length, bytes.length);
+            entries.put(key, joined);
+        }
+
+        /** Writes out this batch as one unit. */
+        public void commit() {
+            if (!entries.isEmpty()) {
+                Journal.commit(journalFile, entries, offsets);
+            }
+        }
+    }
+
+    /** Writes ENTRIES out as one unit, journaled in JOURNALFILE. */
+    private static void commit(File journalFile, Map<File, byte[]> entries,
+            Map<File, Long> offsets) {
+        byte[] record = encode(entries, offsets);
+        try (FileChannel out = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(record));
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        apply(journalFile, entries, offsets);
+    }
+
+    private static void apply(File journalFile, Map<File, byte[]> entries,
+            Map<File, Long> offsets) {
+        try {
+            for (Map.Entry<File, byte[]> entry : entries.entrySet()) {
+                File file = entry.getKey();
+                if (entry.getValue() == null) {
+                    file.delete();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                if (offsets.containsKey(file)) {
+                    append(file, offsets.get(file), entry.getValue());
+                    continue;
+                }
+                File tmpFile = new File(file.getPath() + ".tmp");
+                Files.write(tmpFile.toPath(), entry.getValue());
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            // One pass of forcing for the whole batch, rather than one per write.
+            for (Map.Entry<File, byte[]> entry : entries.entrySet()) {
+                if (entry.getValue() != null) {
+                    force(entry.getKey());
+                }
+                force(entry.getKey().getParentFile());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalFile.delete();
+    }
+
+    /** Writes CONTENTS into FILE at OFFSET, dropping anything already past it. */
+    private static void append(File file, long offset, byte[] contents) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (out.size() > offset) {
+                out.truncate(offset);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                out.write(buffer, offset + buffer.position());
+            }
+        }
+    }
+
+    /** Forces FILE, or the directory entries of directory FILE, to disk where supported. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // Some systems cannot open or force directories; renames there are
+            // as durable as the file system makes them.
+            return;
+        }
+    }
+
+    private static byte[] encode(Map<File, byte[]> entries, Map<File, Long> offsets) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<File, byte[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey().getPath());
+                if (entry.getValue() == null) {
+                    out.writeByte(DELETE);
+                } else if (offsets.containsKey(entry.getKey())) {
+                    out.writeByte(APPEND);
+                    out.writeLong(offsets.get(entry.getKey()));
+                } else {
+                    out.writeByte(WRITE);
+                }
+                if (entry.getValue() != null) {
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        long checksum = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes.write((int) (checksum >>> shift));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the entries of journal RECORD, or null if it is incomplete or
+     * damaged, putting the offsets of its appends in OFFSETS.
+     */
+    private static Map<File, byte[]> decode(byte[] record, Map<File, Long> offsets) {
+        if (record.length < 12) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length - 4);
+        long checksum = 0;
+        for (int i = record.length - 4; i < record.length; i += 1) {
+            checksum = (checksum << 8) | (record[i] & 0xff);
+        }
+        if (checksum != crc.getValue()) {
+            return null;
+        }
+        Map<File, byte[]> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ByteArrayInputStream(record, 0, record.length - 4)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                File file = new File(in.readUTF());
+                byte kind = in.readByte();
+                if (kind == DELETE) {
+                    entries.put(file, null);
+                } else {
+                    if (kind == APPEND) {
+                        offsets.put(file, in.readLong());
+                    }
+                    byte[] contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                    entries.put(file, contents);
+                }
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return entries;
+    }
+}
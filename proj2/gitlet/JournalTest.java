@@ -0,0 +1,125 @@
+package gitlet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the journal finishes an interrupted commit exactly once and
+ * drops one that was never completed.
+ *
+ * @author ZonePG
+ */
+public class JournalTest {
+
+    static {
+        // The journal lives in .gitlet under the working directory, which is fixed on first use.
+        try {
+            File dir = Files.createTempDirectory("gitlet-journal-test").toFile();
+            System.setProperty("user.dir", dir.getPath());
+            Utils.join(dir, ".gitlet").mkdir();
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    private final File dir = Repository.GITLET_DIR;
+
+    @After
+    public void cleanUp() {
+        Journal.discard();
+        Journal.JOURNAL_FILE.delete();
+    }
+
+    @Test
+    public void commitWritesAppendsAndDeletes() {
+        File written = Utils.join(dir, "written");
+        File appended = Utils.join(dir, "appended");
+        File deleted = Utils.join(dir, "deleted");
+        Utils.writeContents(appended, "a\n");
+        Utils.writeContents(deleted, "x");
+
+        Journal.write(written, "w");
+        Journal.append(appended, "b\n");
+        Journal.delete(deleted);
+        assertEquals("a\nb\n", Journal.readContentsAsString(appended));
+        assertFalse(Journal.exists(deleted));
+        Journal.commit();
+
+        assertEquals("w", Utils.readContentsAsString(written));
+        assertEquals("a\nb\n", Utils.readContentsAsString(appended));
+        assertFalse(deleted.exists());
+        assertFalse(Journal.JOURNAL_FILE.exists());
+    }
+
+    @Test
+    public void recoverFinishesAnInterruptedCommitOnce() {
+        // A plain file where a directory should be stops the commit after the journal is written.
+        File blocker = Utils.join(dir, "blocked");
+        Utils.writeContents(blocker, "");
+        File written = Utils.join(blocker, "written");
+        File log = Utils.join(dir, "log");
+        Utils.writeContents(log, "a\n");
+
+        Journal.write(written, "w");
+        Journal.append(log, "b\n");
+        commitInterrupted();
+        assertTrue(Journal.JOURNAL_FILE.exists());
+
+        // Part of the append reached the file before the interruption.
+        Utils.writeContents(log, "a\nb");
+        blocker.delete();
+        Journal.recover();
+        assertEquals("w", Utils.readContentsAsString(written));
+        assertEquals("a\nb\n", Utils.readContentsAsString(log));
+        assertFalse(Journal.JOURNAL_FILE.exists());
+
+        // Nothing is left to apply a second time.
+        Journal.recover();
+        assertEquals("a\nb\n", Utils.readContentsAsString(log));
+    }
+
+    @Test
+    public void recoverDropsAnIncompleteJournal() {
+        File file = Utils.join(dir, "untouched");
+        Utils.writeContents(file, "old");
+        Utils.writeContents(Journal.JOURNAL_FILE, "GLJN torn before its checksum");
+
+        Journal.recover();
+        assertFalse(Journal.JOURNAL_FILE.exists());
+        assertEquals("old", Utils.readContentsAsString(file));
+    }
+
+    @Test
+    public void recoverDropsAJournalCutShort() {
+        File blocker = Utils.join(dir, "blocked-short");
+        Utils.writeContents(blocker, "");
+        File file = Utils.join(blocker, "file");
+        Journal.write(file, "new");
+        commitInterrupted();
+
+        byte[] record = Utils.readContents(Journal.JOURNAL_FILE);
+        Utils.writeContents(Journal.JOURNAL_FILE,
+                (Object) Arrays.copyOf(record, record.length - 1));
+        blocker.delete();
+        Journal.recover();
+        assertFalse(Journal.JOURNAL_FILE.exists());
+        assertFalse(file.exists());
+    }
+
+    /** Commits the buffered writes, which are expected to fail after the journal is written. */
+    private static void commitInterrupted() {
+        try {
+            Journal.commit();
+            fail("the commit should have been interrupted");
+        } catch (IllegalArgumentException excp) {
+            Journal.discard();
+        }
+    }
+}
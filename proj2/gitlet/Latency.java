@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long each command took, from the start of the JVM that ran it
+ * until it finished, so that commands run directly ("cold") and through the
+ * daemon can be compared.  Recording is off unless the GITLET_TIMING
+ * environment variable is set.
+ *
+ * Each record is one line of .gitlet/latency: mode, command, milliseconds.
+ *
+ * @author ZonePG
+ */
+public class Latency {
+
+    public static final File LATENCY_FILE = Utils.join(Repository.GITLET_DIR, "latency");
+    public static final String ENV = "GITLET_TIMING";
+
+    /** Records that the command ARGS just finished, having been run in MODE. */
+    public static void record(String mode, String[] args) {
+        if (System.getenv(ENV) == null || args.length == 0
+                || !Repository.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        long millis = System.currentTimeMillis()
+                - ManagementFactory.getRuntimeMXBean().getStartTime();
+        String line = mode + " " + args[0] + " " + millis + "\n";
+        try (FileOutputStream out = new FileOutputStream(LATENCY_FILE, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the recorded times in milliseconds, by command and then by mode. */
+    public static Map<String, Map<String, List<Long>>> load() {
+        Map<String, Map<String, List<Long>>> result = new TreeMap<>();
+        if (!LATENCY_FILE.exists()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(LATENCY_FILE).split("\n")) {
+            String[] fields = line.split(" ");
+            if (fields.length != 3) {
+                continue;
+            }
+            result.computeIfAbsent(fields[1], k -> new TreeMap<>())
+                    .computeIfAbsent(fields[0], k -> new ArrayList<>())
+                    .add(Long.parseLong(fields[2]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map that forgets its least recently used entries, for caching
+ * immutable objects by id.  Safe to share between threads.
+ *
+ * @author ZonePG
+ */
+class LruCache<K, V> {
+
+    private final Map<K, V> map;
+
+    /** A cache holding at most CAPACITY entries. */
+    LruCache(int capacity) {
+        map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
  */
@@ -9,6 +11,43 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        Latency.record("cold", args);
+    }
+
+    /**
+     * Runs the command ARGS.  Commands report user errors by throwing a
+     * GitletException carrying the message to print.  The refs and staging
+     * area changes a command makes are committed together when it ends, and
+     * the repository is locked while it runs.
+     */
+    public static void run(String[] args) {
+        RepositoryLock lock = args.length == 0 ? null : RepositoryLock.acquire(args[0]);
+        try {
+            Journal.recover();
+            try {
+                dispatch(args);
+            } catch (GitletException excp) {
+                // A command that stops with a message keeps what it did before stopping.
+                Journal.commit();
+                throw excp;
+            } catch (RuntimeException | Error excp) {
+                Journal.discard();
+                throw excp;
+            }
+            Journal.commit();
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    private static void dispatch(String[] args) {
         // TODO: what if args is empty?
         validateNotEmptyArgs(args);
 
@@ -19,11 +58,16 @@ public class Main {
                 validateNumArgs(args, 1);
                 Repository.initCommand();
                 break;
+            case "clone":
+                Repository.cloneCommand(args);
+                break;
             case "add":
                 // TODO: handle the `add [filename]` command
                 validateCWD();
-                validateNumArgs(args, 2);
-                Repository.addCommand(args[1]);
+                if (args.length < 2) {
+                    Utils.exitWithMessage("Incorrect operands.");
+                }
+                Repository.addCommand(Arrays.asList(args).subList(1, args.length));
                 break;
             // TODO: FILL THE REST IN
             case "commit":
@@ -38,9 +82,24 @@ public class Main {
                 break;
             case "log":
                 validateCWD();
+                if (args.length == 2 && args[1].contains("..")) {
+                    String[] range = args[1].split("\\.\\.", 2);
+                    Repository.logRangeCommand(range[0], range[1]);
+                    break;
+                }
                 validateNumArgs(args, 1);
                 Repository.logCommand();
                 break;
+            case "is-ancestor":
+                validateCWD();
+                validateNumArgs(args, 3);
+                Repository.isAncestorCommand(args[1], args[2]);
+                break;
+            case "merge-base":
+                validateCWD();
+                validateNumArgs(args, 3);
+                Repository.mergeBaseCommand(args[1], args[2]);
+                break;
             case "global-log":
                 validateCWD();
                 validateNumArgs(args, 1);
@@ -48,18 +107,37 @@ public class Main {
                 break;
             case "find":
                 validateCWD();
-                validateNumArgs(args, 2);
-                Repository.findCommand(args[1]);
+                if (args.length == 3) {
+                    Repository.findCommand(args[1], args[2]);
+                } else {
+                    validateNumArgs(args, 2);
+                    Repository.findCommand(null, args[1]);
+                }
+                break;
+            case "diff":
+                validateCWD();
+                if (args.length > 3) {
+                    Utils.exitWithMessage("Incorrect operands.");
+                }
+                Repository.diffCommand(Arrays.asList(args).subList(1, args.length));
                 break;
             case "status":
                 validateCWD();
+                if (args.length == 2 && args[1].equals("--renames")) {
+                    Repository.statusCommand(true);
+                    break;
+                }
                 validateNumArgs(args, 1);
-                Repository.statusCommand();
+                Repository.statusCommand(false);
                 break;
             case "checkout":
                 validateCWD();
                 Repository.checkoutCommand(args);
                 break;
+            case "sparse-checkout":
+                validateCWD();
+                Repository.sparseCheckoutCommand(args);
+                break;
             case "branch":
                 validateCWD();
                 validateNumArgs(args, 2);
@@ -75,6 +153,23 @@ public class Main {
                 validateNumArgs(args, 2);
                 Repository.resetCommand(args[1]);
                 break;
+            case "reflog":
+                validateCWD();
+                if (args.length > 2) {
+                    Utils.exitWithMessage("Incorrect operands.");
+                }
+                Repository.reflogCommand(args.length == 2 ? args[1] : "HEAD");
+                break;
+            case "reflog-expire":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.reflogExpireCommand();
+                break;
+            case "reflog-restore":
+                validateCWD();
+                validateNumArgs(args, 2);
+                Repository.reflogRestoreCommand(args[1]);
+                break;
             case "merge":
                 validateCWD();
                 validateNumArgs(args, 2);
@@ -95,6 +190,69 @@ public class Main {
                 validateNumArgs(args, 3);
                 Repository.pushCommand(args[1], args[2]);
                 break;
+            case "fetch":
+                validateCWD();
+                validateNumArgs(args, 3);
+                Repository.fetchCommand(args[1], args[2]);
+                break;
+            case "pull":
+                validateCWD();
+                validateNumArgs(args, 3);
+                Repository.pullCommand(args[1], args[2]);
+                break;
+            case "stats":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.statsCommand();
+                break;
+            case "migrate":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.migrateCommand();
+                break;
+            case "config":
+                validateCWD();
+                if (args.length != 2 && args.length != 3) {
+                    Utils.exitWithMessage("Incorrect operands.");
+                }
+                Repository.configCommand(args[1], args.length == 3 ? args[2] : null);
+                break;
+            case "gc":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.gcCommand();
+                break;
+            case "fsck":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.fsckCommand();
+                break;
+            case "repack":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.repackCommand();
+                break;
+            case "daemon":
+                validateCWD();
+                if (args.length == 2 && args[1].equals("stop")) {
+                    if (!Daemon.forward(args, System.out)) {
+                        Utils.exitWithMessage("No daemon is running.");
+                    }
+                    break;
+                }
+                validateNumArgs(args, 1);
+                Daemon.serve();
+                break;
+            case "lock-stats":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.lockStatsCommand();
+                break;
+            case "latency":
+                validateCWD();
+                validateNumArgs(args, 1);
+                Repository.latencyCommand();
+                break;
             default:
                 validateCWD();
                 Utils.exitWithMessage("No command with that name exists.");
@@ -0,0 +1,70 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * Numbers the objects of a store 0, 1, 2, ... in order of id, keeping only
+ * their raw 20-byte ids in one array, so that per-object flags such as
+ * reachability fit in a BitSet even for millions of objects.
+ *
+ * @author ZonePG
+ */
+class ObjectNumbering {
+
+    private static final int ID_SIZE = 20;
+
+    private final byte[] ids;
+    private final int size;
+
+    /** Numbers the objects in STORE. */
+    ObjectNumbering(ObjectStore store) {
+        List<String> sorted = store.ids();
+        size = sorted.size();
+        ids = new byte[size * ID_SIZE];
+        for (int i = 0; i < size; i += 1) {
+            System.arraycopy(Utils.hexToBytes(sorted.get(i)), 0, ids, i * ID_SIZE, ID_SIZE);
+        }
+    }
+
+    /** Returns the number of objects numbered. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the id of object NUMBER. */
+    String getId(int number) {
+        return Utils.bytesToHex(ids, number * ID_SIZE, ID_SIZE);
+    }
+
+    /** Returns the number of object ID, or -1 if it is not in the store. */
+    int indexOf(String id) {
+        if (!Utils.isUid(id)) {
+            return -1;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int i, byte[] key) {
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int cmp = Integer.compare(ids[i * ID_SIZE + k] & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
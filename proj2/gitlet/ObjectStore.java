@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A content-addressed store of immutable objects, each named by the SHA-1 UID
+ * of its contents.
+ *
+ * @author ZonePG
+ */
+public interface ObjectStore {
+
+    /** Stores DATA under ID, unless an object named ID is already present. */
+    void put(String id, byte[] data);
+
+    /**
+     * Moves FILE, which must come from createTempFile, into the store as
+     * object ID, or deletes it if an object named ID is already present.
+     */
+    void putFile(String id, File file);
+
+    /** Returns a new empty file in which an object may be built for putFile. */
+    File createTempFile();
+
+    /**
+     * Copies the objects named IDS from SOURCE into this store, as a single
+     * pack, skipping any this store already has.
+     */
+    void putAll(ObjectStore source, Collection<String> ids);
+
+    /** Returns the contents of the object named ID, or null if there is none. */
+    byte[] get(String id);
+
+    /**
+     * Returns at most the first LENGTH bytes of the object named ID, or null
+     * if there is none.
+     */
+    byte[] getPrefix(String id, int length);
+
+    /** Returns the size in bytes of the object named ID, or -1 if there is none. */
+    long size(String id);
+
+    /**
+     * Writes the bytes of object ID from OFFSET onwards to TARGET without
+     * reading them into memory.  Returns false if there is no such object.
+     */
+    boolean transferTo(String id, long offset, WritableByteChannel target);
+
+    /** Returns true iff this store holds an object named ID. */
+    boolean contains(String id);
+
+    /** Returns the ids of all objects in this store, in lexicographic order. */
+    List<String> ids();
+
+    /** Moves every object in this store into a single packfile. */
+    void repack();
+
+    /**
+     * Deletes every object whose id KEEP rejects, rewriting any packfile
+     * that holds one, along with temporary files left by interrupted writes.
+     */
+    void retain(Predicate<String> keep);
+}
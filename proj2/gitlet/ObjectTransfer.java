@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies the objects reachable from a commit from one repository to another,
+ * skipping everything the destination already has.  A repository that has an
+ * object always has everything reachable from it, so the walk stops at the
+ * first commit or tree the destination knows, and the cost is proportional to
+ * the number of new objects.  The objects of each kind are sent as a single
+ * pack, chunks and blobs first and commits last, so the destination never
+ * holds a commit whose files are missing.
+ *
+ * A transfer for a shallow or partial clone can be limited to the commits
+ * within DEPTH of the starting ones, and to blobs no longer than BLOBLIMIT.
+ * The commits whose parents were left behind are collected as the new
+ * shallow commits, and blobs left behind are fetched later, when needed (see
+ * Promisor).
+ *
+ * @author ZonePG
+ */
+class ObjectTransfer {
+
+    /** The object stores of one repository. */
+    static class Stores {
+        private final ObjectStore commits;
+        private final ObjectStore trees;
+        private final ObjectStore blobs;
+        private final ObjectStore chunks;
+
+        Stores(ObjectStore commits, ObjectStore trees, ObjectStore blobs, ObjectStore chunks) {
+            this.commits = commits;
+            this.trees = trees;
+            this.blobs = blobs;
+            this.chunks = chunks;
+        }
+
+        /** Returns the stores of the current repository. */
+        static Stores local() {
+            return new Stores(Commit.STORE, Tree.STORE, Blob.STORE, Blob.CHUNKS);
+        }
+
+        /** Returns the stores of the repository whose .gitlet directory is GITDIR. */
+        static Stores in(File gitDir) {
+            return new Stores(new PackedObjectStore(Utils.join(gitDir, "commits")),
+                    new PackedObjectStore(Utils.join(gitDir, "trees")),
+                    new PackedObjectStore(Utils.join(gitDir, "blobs")),
+                    new PackedObjectStore(Utils.join(gitDir, "chunks")));
+        }
+
+        ObjectStore commits() {
+            return commits;
+        }
+    }
+
+    private final Stores source;
+    private final Stores destination;
+    private final List<String> commits = new ArrayList<>();
+    private final Set<String> trees = new HashSet<>();
+    private final Set<String> blobs = new HashSet<>();
+    private final Set<String> chunks = new HashSet<>();
+    private final Set<String> shallow = new HashSet<>();
+    /** How many generations of commits to copy, or 0 for all of them. */
+    private final int depth;
+    /** The length of the longest blob to copy, or -1 for no limit. */
+    private final long blobLimit;
+
+    ObjectTransfer(Stores source, Stores destination) {
+        this(source, destination, 0, -1);
+    }
+
+    ObjectTransfer(Stores source, Stores destination, int depth, long blobLimit) {
+        this.source = source;
+        this.destination = destination;
+        this.depth = depth;
+        this.blobLimit = blobLimit;
+    }
+
+    /**
+     * Copies commit COMMITID and everything reachable from it, returning the
+     * number of objects sent.
+     */
+    int copy(String commitId) {
+        return copy(List.of(commitId));
+    }
+
+    /**
+     * Copies the commits COMMITIDS and everything reachable from them, within
+     * the limits of this transfer, returning the number of objects sent.
+     */
+    int copy(Collection<String> commitIds) {
+        findCommits(commitIds);
+        for (String id : commits) {
+            Commit commit = Commit.load(source.commits, id);
+            if (commit.isLegacy()) {
+                // Commits from before trees list their files directly.
+                for (String blobId : commit.getBlobs().values()) {
+                    addBlob(blobId);
+                }
+            } else {
+                findTrees(commit.getTreeId());
+            }
+        }
+        destination.chunks.putAll(source.chunks, chunks);
+        destination.blobs.putAll(source.blobs, blobs);
+        destination.trees.putAll(source.trees, trees);
+        destination.commits.putAll(source.commits, commits);
+        return commits.size() + trees.size() + blobs.size() + chunks.size();
+    }
+
+    /** Returns the copied commits whose parents were left behind by the depth limit. */
+    Set<String> getShallow() {
+        return shallow;
+    }
+
+    /**
+     * Copies those of the blobs BLOBIDS that the source has, returning the
+     * number of objects sent.
+     */
+    int copyBlobs(Collection<String> blobIds) {
+        for (String blobId : blobIds) {
+            if (source.blobs.contains(blobId)) {
+                addBlob(blobId);
+            }
+        }
+        destination.chunks.putAll(source.chunks, chunks);
+        destination.blobs.putAll(source.blobs, blobs);
+        return blobs.size() + chunks.size();
+    }
+
+    /** Finds the commits to send, a generation at a time so that depths are shortest. */
+    private void findCommits(Collection<String> commitIds) {
+        Set<String> seen = new HashSet<>(commitIds);
+        List<String> generation = new ArrayList<>(seen);
+        for (int distance = 1; !generation.isEmpty(); distance += 1) {
+            List<String> next = new ArrayList<>();
+            for (String id : generation) {
+                if (destination.commits.contains(id)) {
+                    continue;
+                }
+                Commit.Header commit = Commit.loadHeader(source.commits, id, false);
+                if (commit == null) {
+                    throw Utils.error("Missing commit %s.", id);
+                }
+                commits.add(id);
+                for (String parentId
+                        : new String[]{commit.getFirstParentId(), commit.getSecondParentId()}) {
+                    if (parentId == null) {
+                        continue;
+                    }
+                    if (depth > 0 && distance >= depth) {
+                        // A parent the destination has is not left behind.
+                        if (!destination.commits.contains(parentId)) {
+                            shallow.add(id);
+                        }
+                    } else if (seen.add(parentId)) {
+                        next.add(parentId);
+                    }
+                }
+            }
+            generation = next;
+        }
+    }
+
+    private void findTrees(String treeId) {
+        if (trees.contains(treeId) || destination.trees.contains(treeId)) {
+            return;
+        }
+        trees.add(treeId);
+        Tree tree = Tree.load(source.trees, treeId);
+        for (String blobId : tree.getBlobs().values()) {
+            addBlob(blobId);
+        }
+        for (Map.Entry<String, String> entry : tree.getTrees().entrySet()) {
+            findTrees(entry.getValue());
+        }
+    }
+
+    /**
+     * Sends blob BLOBID, along with the blobs it is stored as a delta against
+     * and any of its chunks the destination lacks.
+     */
+    private void addBlob(String blobId) {
+        if (destination.blobs.contains(blobId)) {
+            return;
+        }
+        if (blobLimit >= 0 && Blob.contentsLength(source.blobs, blobId) > blobLimit) {
+            return;
+        }
+        // Sending from a partial clone needs the blobs it left out.
+        if (source.blobs == Blob.STORE && !Blob.STORE.contains(blobId)) {
+            Promisor.fetch(blobId);
+        }
+        while (blobId != null && !blobs.contains(blobId)
+                && !destination.blobs.contains(blobId)) {
+            blobs.add(blobId);
+            for (String chunkId : Blob.chunkIds(source.blobs, blobId)) {
+                if (!destination.chunks.contains(chunkId)) {
+                    chunks.add(chunkId);
+                }
+            }
+            blobId = Blob.deltaBase(source.blobs, blobId);
+        }
+    }
+}
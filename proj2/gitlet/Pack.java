@@ -0,0 +1,370 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A packfile: many objects appended to one data file, plus a sorted index file
+ * mapping the SHA-1 of each object to its offset and length in the data file.
+ * The index is memory-mapped and searched by binary search, so looking up an
+ * object never lists a directory.
+ *
+ * Index layout: magic, count, then COUNT entries of (20-byte id, 8-byte offset,
+ * 8-byte length), sorted by id.  Pack layout: magic, then the object data.
+ * Indexes written before lengths were widened have a different magic and
+ * 4-byte lengths; they are still read, and repacking rewrites them.
+ *
+ * @author ZonePG
+ */
+class Pack {
+
+    private static final int PACK_MAGIC = 0x47504b31;
+    private static final int IDX_MAGIC = 0x47494432;
+    private static final int OLD_IDX_MAGIC = 0x47494431;
+    private static final int IDX_HEADER_SIZE = 8;
+    private static final int ID_SIZE = 20;
+    private static final int ENTRY_SIZE = ID_SIZE + 8 + 8;
+    private static final int OLD_ENTRY_SIZE = ID_SIZE + 8 + 4;
+    /** The longest object read whole into an array; larger ones can only be streamed. */
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final File packFile;
+    private final File idxFile;
+    private final FileChannel data;
+    private final MappedByteBuffer index;
+    private final int size;
+    private final int entrySize;
+
+    /** Opens the pack whose index is IDXFILE. */
+    Pack(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = Utils.join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel idx = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            index = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+            data = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) == IDX_MAGIC) {
+            entrySize = ENTRY_SIZE;
+        } else if (index.getInt(0) == OLD_IDX_MAGIC) {
+            entrySize = OLD_ENTRY_SIZE;
+        } else {
+            throw Utils.error("Corrupt pack index %s.", name);
+        }
+        size = index.getInt(4);
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the position of object ID in this pack, or -1 if absent. */
+    int find(String id) {
+        if (!Utils.isUid(id)) {
+            return -1;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareId(int pos, byte[] key) {
+        int base = IDX_HEADER_SIZE + pos * entrySize;
+        for (int i = 0; i < ID_SIZE; i += 1) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the id of the object at position POS. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_SIZE];
+        index.get(IDX_HEADER_SIZE + pos * entrySize, id);
+        return Utils.bytesToHex(id, 0, ID_SIZE);
+    }
+
+    /** Returns the offset in the pack of the object at position POS. */
+    long offsetAt(int pos) {
+        return index.getLong(IDX_HEADER_SIZE + pos * entrySize + ID_SIZE);
+    }
+
+    /** Returns the length in bytes of the object at position POS. */
+    long lengthAt(int pos) {
+        int at = IDX_HEADER_SIZE + pos * entrySize + ID_SIZE + 8;
+        return entrySize == ENTRY_SIZE ? index.getLong(at) : index.getInt(at) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the contents of the object at position POS, which must be small
+     * enough for an array; larger objects are read with transferTo.
+     */
+    byte[] read(int pos) {
+        if (lengthAt(pos) > MAX_ARRAY_LENGTH) {
+            throw Utils.error("Object %s is too large to read into memory.", idAt(pos));
+        }
+        return read(pos, (int) lengthAt(pos));
+    }
+
+    /** Returns at most the first LENGTH bytes of the object at position POS. */
+    byte[] read(int pos, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, lengthAt(pos)));
+        long offset = offsetAt(pos);
+        try {
+            while (buffer.hasRemaining()) {
+                int n = data.read(buffer, offset + buffer.position());
+                if (n < 0) {
+                    throw Utils.error("Truncated pack %s.", packFile.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return buffer.array();
+    }
+
+    /** Writes the object at position POS, from byte OFFSET onwards, to TARGET. */
+    void transferTo(int pos, long offset, WritableByteChannel target) {
+        try {
+            transfer(data, offsetAt(pos) + offset, lengthAt(pos) - offset, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies COUNT bytes of SOURCE, starting at POSITION, to TARGET. */
+    static void transfer(FileChannel source, long position, long count,
+            WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long n = source.transferTo(position, count, target);
+            if (n <= 0) {
+                throw Utils.error("Unexpected end of object data.");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    /** Returns the total size in bytes of this pack and its index. */
+    long diskSize() {
+        return packFile.length() + idxFile.length();
+    }
+
+    /** Returns the index file of this pack. */
+    File getIndexFile() {
+        return idxFile;
+    }
+
+    /** Closes this pack's data file; closing it again does nothing. */
+    void close() {
+        try {
+            data.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes and removes this pack from disk. */
+    void delete() {
+        close();
+        idxFile.delete();
+        packFile.delete();
+    }
+
+    /** Returns the index files of all complete packs in PACKDIR, in lexicographic order. */
+    static List<File> indexFilesIn(File packDir) {
+        List<File> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(packDir);
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            if (name.endsWith(".idx")) {
+                result.add(Utils.join(packDir, name));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes objects into a new pack.  Objects are streamed into a temporary
+     * data file as they are added; the index is written last, so readers only
+     * ever see complete packs.
+     */
+    static class Writer {
+        private final File packDir;
+        private final File tmpFile;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final List<String> ids = new ArrayList<>();
+        private final List<long[]> locations = new ArrayList<>();
+        private final Set<String> added = new HashSet<>();
+        private long offset;
+
+        Writer(File packDir) {
+            this.packDir = packDir;
+            packDir.mkdirs();
+            try {
+                tmpFile = File.createTempFile("tmp-pack-", ".tmp", packDir);
+                file = new FileOutputStream(tmpFile);
+                out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeInt(PACK_MAGIC);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            offset = 4;
+        }
+
+        /** Appends object ID with contents DATA, unless it was already added. */
+        void add(String id, byte[] data) {
+            if (!added.add(id)) {
+                return;
+            }
+            try {
+                out.write(data);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ids.add(id);
+            locations.add(new long[]{offset, data.length});
+            offset += data.length;
+        }
+
+        /** Appends object ID, copying its contents from SOURCE, unless it was already added. */
+        void add(String id, File source) {
+            if (!added.add(id)) {
+                return;
+            }
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                append(id, in, 0, in.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the object at position POS of SOURCE, unless it was already added. */
+        void add(String id, Pack source, int pos) {
+            if (!added.add(id)) {
+                return;
+            }
+            try {
+                append(id, source.data, source.offsetAt(pos), source.lengthAt(pos));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends object ID, copying it from SOURCE, unless it was already added. */
+        void add(String id, ObjectStore source) {
+            if (!added.add(id)) {
+                return;
+            }
+            try {
+                out.flush();
+                long length = source.size(id);
+                if (length < 0 || !source.transferTo(id, 0, file.getChannel())) {
+                    throw Utils.error("Missing object %s.", id);
+                }
+                appended(id, length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private void append(String id, FileChannel in, long position, long length)
+                throws IOException {
+            // Objects are copied channel to channel, so large ones never sit in memory.
+            out.flush();
+            transfer(in, position, length, file.getChannel());
+            appended(id, length);
+        }
+
+        private void appended(String id, long length) {
+            ids.add(id);
+            locations.add(new long[]{offset, length});
+            offset += length;
+        }
+
+        /** Returns the number of objects added so far. */
+        int size() {
+            return ids.size();
+        }
+
+        /** Completes the pack, returning its index file, or null if it is empty. */
+        File finish() {
+            try {
+                out.close();
+                if (ids.isEmpty()) {
+                    tmpFile.delete();
+                    return null;
+                }
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < ids.size(); i += 1) {
+                    order.add(i);
+                }
+                order.sort(Comparator.comparing(ids::get));
+                StringBuilder names = new StringBuilder();
+                for (int i : order) {
+                    names.append(ids.get(i));
+                }
+                String packName = "pack-" + Utils.sha1(names.toString());
+                File packFile = Utils.join(packDir, packName + ".pack");
+                File idxFile = Utils.join(packDir, packName + ".idx");
+                if (!tmpFile.renameTo(packFile)) {
+                    throw Utils.error("Could not write pack %s.", packName);
+                }
+
+                // Readers map any index they find, so it appears complete or not at all.
+                File tmpIdxFile = RepositoryLock.tempFileFor(idxFile);
+                try (DataOutputStream idx = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmpIdxFile)))) {
+                    idx.writeInt(IDX_MAGIC);
+                    idx.writeInt(ids.size());
+                    for (int i : order) {
+                        idx.write(Utils.hexToBytes(ids.get(i)));
+                        idx.writeLong(locations.get(i)[0]);
+                        idx.writeLong(locations.get(i)[1]);
+                    }
+                }
+                Files.move(tmpIdxFile.toPath(), idxFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return idxFile;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * An object store that keeps newly written objects as loose files named by
+ * their id in DIR, and older objects in packfiles under DIR/pack.  Objects are
+ * built in DIR/tmp and renamed into place, so a loose object is never seen
+ * half-written.  A store may be read and written from several threads.
+ *
+ * @author ZonePG
+ */
+public class PackedObjectStore implements ObjectStore {
+
+    private final File dir;
+    private final File packDir;
+    private final File tmpDir;
+    private volatile List<Pack> packs;
+    private List<File> packIndexFiles;
+    /** The packs open before the list was last dropped, reused if still on disk. */
+    private List<Pack> stalePacks = new ArrayList<>();
+
+    public PackedObjectStore(File dir) {
+        this.dir = dir;
+        this.packDir = Utils.join(dir, "pack");
+        this.tmpDir = Utils.join(dir, "tmp");
+    }
+
+    @Override
+    public void put(String id, byte[] data) {
+        if (contains(id)) {
+            return;
+        }
+        File tmpFile = createTempFile();
+        Utils.writeContents(tmpFile, (Object) data);
+        putFile(id, tmpFile);
+    }
+
+    @Override
+    public void putFile(String id, File file) {
+        if (contains(id)) {
+            file.delete();
+            return;
+        }
+        try {
+            Files.move(file.toPath(), Utils.join(dir, id).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public void putAll(ObjectStore source, Collection<String> ids) {
+        Pack.Writer writer = new Pack.Writer(packDir);
+        for (String id : ids) {
+            if (!contains(id)) {
+                writer.add(id, source);
+            }
+        }
+        if (writer.finish() != null) {
+            dropPacks();
+        }
+    }
+
+    @Override
+    public File createTempFile() {
+        // Stores added after a repository was made have no directories yet.
+        tmpDir.mkdirs();
+        try {
+            return File.createTempFile("obj-", ".tmp", tmpDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public byte[] get(String id) {
+        File loose = Utils.join(dir, id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.read(pos);
+            }
+        }
+        // Another process may have repacked since we last looked.
+        if (reloadPacks()) {
+            return get(id);
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getPrefix(String id, int length) {
+        File loose = Utils.join(dir, id);
+        if (loose.isFile()) {
+            try (FileChannel channel = FileChannel.open(loose.toPath(),
+                    StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, channel.size()));
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    continue;
+                }
+                return buffer.array();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.read(pos, length);
+            }
+        }
+        if (reloadPacks()) {
+            return getPrefix(id, length);
+        }
+        return null;
+    }
+
+    @Override
+    public long size(String id) {
+        File loose = Utils.join(dir, id);
+        if (loose.isFile()) {
+            return loose.length();
+        }
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.lengthAt(pos);
+            }
+        }
+        if (reloadPacks()) {
+            return size(id);
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean transferTo(String id, long offset, WritableByteChannel target) {
+        File loose = Utils.join(dir, id);
+        if (loose.isFile()) {
+            try (FileChannel channel = FileChannel.open(loose.toPath(),
+                    StandardOpenOption.READ)) {
+                Pack.transfer(channel, offset, channel.size() - offset, target);
+                return true;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Pack pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                pack.transferTo(pos, offset, target);
+                return true;
+            }
+        }
+        return reloadPacks() && transferTo(id, offset, target);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        if (Utils.join(dir, id).isFile()) {
+            return true;
+        }
+        for (Pack pack : packs()) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return reloadPacks() && contains(id);
+    }
+
+    @Override
+    public List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        for (Pack pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                result.add(pack.idAt(pos));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public void repack() {
+        List<String> looseIds = looseIds();
+        List<Pack> oldPacks = packs();
+        if (looseIds.isEmpty() && oldPacks.size() <= 1) {
+            return;
+        }
+        Pack.Writer writer = new Pack.Writer(packDir);
+        for (String id : looseIds) {
+            writer.add(id, Utils.join(dir, id));
+        }
+        for (Pack pack : oldPacks) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                writer.add(pack.idAt(pos), pack, pos);
+            }
+        }
+        File idxFile = writer.finish();
+        // The new pack holds everything, so the old copies can go.  An old pack
+        // of the same objects has the same name, and was just replaced by it.
+        for (Pack pack : oldPacks) {
+            if (pack.getIndexFile().equals(idxFile)) {
+                pack.close();
+            } else {
+                pack.delete();
+            }
+        }
+        for (String id : looseIds) {
+            Utils.join(dir, id).delete();
+        }
+        synchronized (this) {
+            // Every pack listed was closed above, so none may be reused.
+            packs = null;
+        }
+    }
+
+    @Override
+    public void retain(Predicate<String> keep) {
+        for (String id : looseIds()) {
+            if (!keep.test(id)) {
+                Utils.join(dir, id).delete();
+            }
+        }
+        List<String> tmpNames = Utils.plainFilenamesIn(tmpDir);
+        if (tmpNames != null) {
+            for (String name : tmpNames) {
+                Utils.join(tmpDir, name).delete();
+            }
+        }
+        // Only packs holding something to drop are rewritten, into one new pack.
+        List<Pack> doomed = new ArrayList<>();
+        for (Pack pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                if (!keep.test(pack.idAt(pos))) {
+                    doomed.add(pack);
+                    break;
+                }
+            }
+        }
+        if (doomed.isEmpty()) {
+            return;
+        }
+        Pack.Writer writer = new Pack.Writer(packDir);
+        for (Pack pack : doomed) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                if (keep.test(pack.idAt(pos))) {
+                    writer.add(pack.idAt(pos), pack, pos);
+                }
+            }
+        }
+        writer.finish();
+        for (Pack pack : doomed) {
+            pack.delete();
+        }
+        dropPacks();
+    }
+
+    private List<String> looseIds() {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        return names == null ? new ArrayList<>() : names;
+    }
+
+    private List<Pack> packs() {
+        List<Pack> result = packs;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (packs == null) {
+                packIndexFiles = Pack.indexFilesIn(packDir);
+                List<Pack> opened = new ArrayList<>();
+                for (File idxFile : packIndexFiles) {
+                    Pack reused = null;
+                    for (Pack pack : stalePacks) {
+                        if (pack.getIndexFile().equals(idxFile)) {
+                            reused = pack;
+                        }
+                    }
+                    opened.add(reused != null ? reused : new Pack(idxFile));
+                }
+                // Packs that are gone would otherwise hold their files open for good.
+                for (Pack pack : stalePacks) {
+                    if (!opened.contains(pack)) {
+                        pack.close();
+                    }
+                }
+                stalePacks = new ArrayList<>();
+                packs = opened;
+            }
+            return packs;
+        }
+    }
+
+    /** Re-reads the pack directory, returning true iff its contents changed. */
+    private synchronized boolean reloadPacks() {
+        List<File> current = Pack.indexFilesIn(packDir);
+        if (current.equals(packIndexFiles)) {
+            return false;
+        }
+        dropPacks();
+        return true;
+    }
+
+    /** Makes the next read list the packs again, keeping those still on disk open. */
+    private synchronized void dropPacks() {
+        if (packs != null) {
+            stalePacks.addAll(packs);
+        }
+        packs = null;
+    }
+}
@@ -0,0 +1,158 @@
+package gitlet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that packed objects read back as they were stored, and that what an
+ * interrupted repack leaves behind neither hides nor duplicates objects.
+ *
+ * @author ZonePG
+ */
+public class PackedObjectStoreTest {
+
+    private static final String A = "1111111111111111111111111111111111111111";
+    private static final String B = "2222222222222222222222222222222222222222";
+    private static final String C = "3333333333333333333333333333333333333333";
+
+    private File dir;
+    private File packDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gitlet-pack-test").toFile();
+        packDir = Utils.join(dir, "pack");
+    }
+
+    private static byte[] bytes(String contents) {
+        return contents.getBytes();
+    }
+
+    @Test
+    public void repackMovesLooseObjectsIntoOnePack() {
+        PackedObjectStore store = new PackedObjectStore(dir);
+        store.put(A, bytes("apple"));
+        store.put(B, bytes("banana"));
+        store.repack();
+        store.put(C, bytes("cherry"));
+        store.repack();
+
+        assertEquals(Arrays.asList(), Utils.plainFilenamesIn(dir));
+        assertEquals(1, Pack.indexFilesIn(packDir).size());
+        assertArrayEquals(bytes("apple"), store.get(A));
+        assertArrayEquals(bytes("banana"), store.get(B));
+        assertArrayEquals(bytes("cherry"), store.get(C));
+        assertArrayEquals(bytes("ban"), store.getPrefix(B, 3));
+        assertEquals(6, store.size(C));
+    }
+
+    @Test
+    public void leftoversOfAnInterruptedRepackAreIgnored() {
+        PackedObjectStore store = new PackedObjectStore(dir);
+        store.put(A, bytes("apple"));
+        store.repack();
+        store.put(B, bytes("banana"));
+        // A data file whose index was never written, and an index never renamed into place.
+        Utils.writeContents(Utils.join(packDir, "tmp-pack-1.tmp"), "torn data");
+        Utils.writeContents(Utils.join(packDir, "pack-" + C + ".pack"), "no index");
+        Utils.writeContents(Utils.join(packDir, "pack-" + C + ".idx-tmp-1.tmp"), "torn");
+
+        store = new PackedObjectStore(dir);
+        assertEquals(new HashSet<>(Arrays.asList(A, B)), new HashSet<>(store.ids()));
+        assertArrayEquals(bytes("apple"), store.get(A));
+        assertArrayEquals(bytes("banana"), store.get(B));
+        assertNull(store.get(C));
+        store.repack();
+        assertArrayEquals(bytes("apple"), store.get(A));
+        assertArrayEquals(bytes("banana"), store.get(B));
+    }
+
+    @Test
+    public void objectsLeftLooseAfterRepackAreNotDuplicated() throws IOException {
+        PackedObjectStore store = new PackedObjectStore(dir);
+        store.put(A, bytes("apple"));
+        store.put(B, bytes("banana"));
+        File saved = Files.createTempFile("gitlet-pack-test", null).toFile();
+        Files.copy(Utils.join(dir, A).toPath(), saved.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        store.repack();
+        // As if the repack stopped before deleting the loose copy of A.
+        Files.move(saved.toPath(), Utils.join(dir, A).toPath());
+
+        store = new PackedObjectStore(dir);
+        List<String> ids = store.ids();
+        assertEquals(2, ids.size());
+        assertEquals(new HashSet<>(Arrays.asList(A, B)), new HashSet<>(ids));
+        store.repack();
+        assertEquals(Arrays.asList(), Utils.plainFilenamesIn(dir));
+        assertArrayEquals(bytes("apple"), store.get(A));
+    }
+
+    @Test
+    public void retainDeletesFromLooseObjectsAndPacks() {
+        PackedObjectStore store = new PackedObjectStore(dir);
+        store.put(A, bytes("apple"));
+        store.repack();
+        store.put(B, bytes("banana"));
+        store.put(C, bytes("cherry"));
+        Set<String> keep = new HashSet<>(Arrays.asList(B));
+        store.retain(keep::contains);
+
+        assertFalse(store.contains(A));
+        assertTrue(store.contains(B));
+        assertFalse(store.contains(C));
+        assertArrayEquals(bytes("banana"), new PackedObjectStore(dir).get(B));
+    }
+
+    @Test
+    public void indexWithFourByteLengthsIsStillRead() throws IOException {
+        packDir.mkdirs();
+        File packFile = Utils.join(packDir, "pack-old.pack");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(packFile))) {
+            out.writeInt(0x47504b31);
+            out.write(bytes("applebanana"));
+        }
+        File idxFile = Utils.join(packDir, "pack-old.idx");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(idxFile))) {
+            out.writeInt(0x47494431);
+            out.writeInt(2);
+            out.write(Utils.hexToBytes(A));
+            out.writeLong(4);
+            out.writeInt(5);
+            out.write(Utils.hexToBytes(B));
+            out.writeLong(9);
+            out.writeInt(6);
+        }
+
+        PackedObjectStore store = new PackedObjectStore(dir);
+        assertArrayEquals(bytes("apple"), store.get(A));
+        assertArrayEquals(bytes("banana"), store.get(B));
+        store.put(C, bytes("cherry"));
+        store.repack();
+        List<File> indexes = Pack.indexFilesIn(packDir);
+        assertEquals(1, indexes.size());
+        assertEquals("GID2", new String(Arrays.copyOf(Utils.readContents(indexes.get(0)), 4)));
+        assertArrayEquals(bytes("banana"), store.get(B));
+    }
+
+    @Test(expected = GitletException.class)
+    public void indexWithUnknownMagicIsReported() {
+        packDir.mkdirs();
+        Utils.writeContents(Utils.join(packDir, "pack-bad.pack"), "data");
+        Utils.writeContents(Utils.join(packDir, "pack-bad.idx"), "not an index at all");
+        new PackedObjectStore(dir).get(A);
+    }
+}
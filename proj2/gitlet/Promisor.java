@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fetches the blobs a partial clone left out from the remote it was cloned
+ * from, which promises to keep them.  A clone made with a blob limit names
+ * that remote in the clone.promisor setting and keeps the limit in
+ * clone.blob-limit, so that later fetches leave out the same blobs; a
+ * repository without those settings has every blob.
+ *
+ * Blobs are fetched one at a time when they are first read, or all at once
+ * before a checkout writes them out, with their delta bases and chunks.
+ *
+ * @author ZonePG
+ */
+public class Promisor {
+
+    public static final String PROMISOR = "clone.promisor";
+    public static final String BLOB_LIMIT = "clone.blob-limit";
+
+    /** Fetches blob BLOBID if it is missing here, returning true iff it was fetched. */
+    public static boolean fetch(String blobId) {
+        return fetch(List.of(blobId)) > 0;
+    }
+
+    /**
+     * Fetches those of BLOBIDS that are missing here, as one pack, returning
+     * the number of objects fetched.
+     */
+    public static int fetch(Collection<String> blobIds) {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            return 0;
+        }
+        String remoteName = Config.get(PROMISOR);
+        String remoteGitPath = remoteName == null ? null : Remote.getRemoteGitPath(remoteName);
+        if (remoteGitPath == null || !new File(remoteGitPath).isDirectory()) {
+            return 0;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String blobId : blobIds) {
+            if (!Blob.STORE.contains(blobId)) {
+                missing.add(blobId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        return new ObjectTransfer(ObjectTransfer.Stores.in(new File(remoteGitPath)),
+                ObjectTransfer.Stores.local()).copyBlobs(missing);
+    }
+
+    /** Returns the length of the longest blob fetches copy, or -1 if there is no limit. */
+    public static long blobLimit() {
+        String value = Config.get(BLOB_LIMIT);
+        return value == null ? -1 : Long.parseLong(value);
+    }
+
+    /**
+     * Returns the number of bytes SIZE stands for: a count, optionally
+     * followed by k, m or g for KiB, MiB or GiB.
+     */
+    public static long parseSize(String size) {
+        String digits = size.toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("k") || digits.endsWith("m") || digits.endsWith("g")) {
+            unit = 1L << ("kmg".indexOf(digits.charAt(digits.length() - 1)) + 1) * 10;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long count = Long.parseLong(digits);
+            if (count < 0) {
+                throw Utils.error("Incorrect operands.");
+            }
+            return count * unit;
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+}
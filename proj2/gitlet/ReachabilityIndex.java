@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Precomputed reachability bitmaps over a commit graph.  For each selected
+ * commit (every branch tip when the index is built, and every commit whose
+ * generation is a multiple of INTERVAL) it stores the set of graph positions
+ * of the commit and all its ancestors.  Any other commit's ancestry is found
+ * by walking back from it only until selected commits are met and taking the
+ * union of their bitmaps, so ancestry, merge-base and range queries touch a
+ * bounded number of commits however long the history is.
+ *
+ * Bitmaps are compressed as in EWAH: a sequence of marker words, each giving
+ * a run of all-zero or all-one 64-bit words followed by a count of literal
+ * words, which come next.  Since positions follow the order commits were
+ * added, the ancestors of a commit are mostly long runs of ones.
+ *
+ * Layout: magic, version, the graph size covered, the 20-byte id of the last
+ * covered commit, the bitmap count, then (position, offset) pairs sorted by
+ * position, then each bitmap as its word count and words.  The index is
+ * rebuilt once the graph has grown well past it, or if the graph it covered
+ * has been rewritten.
+ *
+ * @author ZonePG
+ */
+public class ReachabilityIndex {
+
+    private static final int MAGIC = 0x47524258;
+    private static final int VERSION = 1;
+    private static final int ID_SIZE = 20;
+    private static final int COUNT_OFFSET = 4 + 4 + 4 + ID_SIZE;
+    private static final int HEADER_SIZE = COUNT_OFFSET + 4;
+    private static final int TABLE_ENTRY_SIZE = 4 + 8;
+    /** Commits whose generation is a multiple of this get a bitmap. */
+    private static final int INTERVAL = 64;
+    /** Fewest new commits worth rebuilding the index for. */
+    private static final int MIN_TAIL = 256;
+    private static final long RUN_BIT = 1L << 63;
+    private static final long MAX_RUN = (1L << 31) - 1;
+    private static final long LITERALS = 0xffffffffL;
+
+    private final File file;
+    private final CommitGraph graph;
+    private MappedByteBuffer index;
+    private int count;
+    private long version;
+
+    /** An index kept in FILE, over the commits of GRAPH. */
+    public ReachabilityIndex(File file, CommitGraph graph) {
+        this.file = file;
+        this.graph = graph;
+    }
+
+    /** Returns the graph positions of commit COMMITID and all its ancestors. */
+    public BitSet reach(String commitId) {
+        int pos = graph.indexOf(commitId);
+        if (pos < 0) {
+            graph.add(Commit.load(commitId));
+            pos = graph.indexOf(commitId);
+        }
+        refresh();
+        long[] words = new long[(graph.size() + 63) / 64];
+        walk(pos, words, this::lookup);
+        return BitSet.valueOf(words);
+    }
+
+    /** Returns true iff commit ANCESTORID is COMMITID or one of its ancestors. */
+    public boolean isAncestor(String ancestorId, String commitId) {
+        int ancestor = graph.indexOf(ancestorId);
+        int pos = graph.indexOf(commitId);
+        // An ancestor always has a smaller generation than its descendants.
+        if (ancestor < 0
+                || (pos >= 0 && graph.getGeneration(ancestor) > graph.getGeneration(pos))) {
+            return false;
+        }
+        return reach(commitId).get(ancestor);
+    }
+
+    /**
+     * Returns a latest common ancestor of commits A and B, or null if they
+     * have none: of their common ancestors, the one with the greatest
+     * generation, which no other common ancestor can descend from.
+     */
+    public String mergeBase(String a, String b) {
+        BitSet common = reach(a);
+        common.and(reach(b));
+        int best = -1;
+        int bestGeneration = 0;
+        // A commit has at most POS ancestors, so its generation is at most POS + 1,
+        // and the scan can stop once no earlier commit could beat the best so far.
+        for (int pos = common.length() - 1; pos >= 0 && pos + 1 > bestGeneration;
+                pos = common.previousSetBit(pos - 1)) {
+            if (graph.getGeneration(pos) > bestGeneration) {
+                best = pos;
+                bestGeneration = graph.getGeneration(pos);
+            }
+        }
+        return best < 0 ? null : graph.getId(best);
+    }
+
+    /**
+     * Returns the ids of the commits reachable from INCLUDEID but not from
+     * EXCLUDEID, most recently added first.
+     */
+    public List<String> range(String excludeId, String includeId) {
+        BitSet commits = reach(includeId);
+        commits.andNot(reach(excludeId));
+        List<String> result = new ArrayList<>();
+        for (int pos = commits.previousSetBit(commits.length() - 1); pos >= 0;
+                pos = commits.previousSetBit(pos - 1)) {
+            result.add(graph.getId(pos));
+        }
+        return result;
+    }
+
+    /** Finds the stored bitmap of the commit at POS, if any. */
+    private interface Bitmaps {
+        /** ORs the bitmap of POS into WORDS, returning false if there is none. */
+        boolean orInto(int pos, long[] words);
+    }
+
+    /**
+     * Sets in WORDS the commit at START and its ancestors, walking back only
+     * as far as commits whose bitmaps BITMAPS has.
+     */
+    private void walk(int start, long[] words, Bitmaps bitmaps) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (pos < 0 || (words[pos >>> 6] & (1L << pos)) != 0) {
+                continue;
+            }
+            if (bitmaps.orInto(pos, words)) {
+                continue;
+            }
+            words[pos >>> 6] |= 1L << pos;
+            pending.push(graph.getFirstParent(pos));
+            pending.push(graph.getSecondParent(pos));
+        }
+    }
+
+    private boolean lookup(int pos, long[] words) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midPos = index.getInt(HEADER_SIZE + mid * TABLE_ENTRY_SIZE);
+            if (midPos < pos) {
+                lo = mid + 1;
+            } else if (midPos > pos) {
+                hi = mid - 1;
+            } else {
+                long offset = index.getLong(HEADER_SIZE + mid * TABLE_ENTRY_SIZE + 4);
+                int length = index.getInt((int) offset);
+                long[] compressed = new long[length];
+                for (int i = 0; i < length; i += 1) {
+                    compressed[i] = index.getLong((int) offset + 4 + i * 8);
+                }
+                decompressInto(compressed, words);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Maps the index, rebuilding it first if it is missing, stale or far behind the graph. */
+    private void refresh() {
+        int size = graph.size();
+        long current = file.lastModified() ^ file.length();
+        if (current != version) {
+            version = current;
+            index = file.exists() ? map() : null;
+        }
+        int covered = index != null && coversGraph(size) ? index.getInt(8) : 0;
+        if (covered == 0) {
+            index = null;
+        }
+        if (size - covered > Math.max(MIN_TAIL, covered / 8)) {
+            build(size);
+            index = map();
+            version = file.lastModified() ^ file.length();
+        }
+        count = index == null ? 0 : index.getInt(COUNT_OFFSET);
+    }
+
+    /** Returns true iff the mapped index describes a prefix of the SIZE commits in the graph. */
+    private boolean coversGraph(int size) {
+        int covered = index.getInt(8);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION || covered > size) {
+            return false;
+        }
+        if (covered == 0) {
+            return true;
+        }
+        byte[] lastId = new byte[ID_SIZE];
+        index.get(12, lastId);
+        return Utils.bytesToHex(lastId, 0, ID_SIZE).equals(graph.getId(covered - 1));
+    }
+
+    private MappedByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes bitmaps for the selected commits among the first SIZE in the graph. */
+    private void build(int size) {
+        BitSet selected = new BitSet(size);
+        for (int pos = 0; pos < size; pos += 1) {
+            if (graph.getGeneration(pos) % INTERVAL == 0) {
+                selected.set(pos);
+            }
+        }
+        for (String branch : Branch.allNames()) {
+            int pos = graph.indexOf(Branch.getCommitId(branch));
+            if (pos >= 0 && pos < size) {
+                selected.set(pos);
+            }
+        }
+        // Parents come before children, so each walk meets only bitmaps already built.
+        Map<Integer, long[]> built = new HashMap<>();
+        TreeMap<Integer, long[]> ordered = new TreeMap<>();
+        for (int pos = selected.nextSetBit(0); pos >= 0; pos = selected.nextSetBit(pos + 1)) {
+            long[] words = new long[(pos >>> 6) + 1];
+            walk(pos, words, (p, target) -> {
+                long[] bitmap = built.get(p);
+                if (bitmap == null) {
+                    return false;
+                }
+                decompressInto(bitmap, target);
+                return true;
+            });
+            long[] compressed = compress(words);
+            built.put(pos, compressed);
+            ordered.put(pos, compressed);
+        }
+
+        File tmpFile = RepositoryLock.tempFileFor(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.write(size == 0 ? new byte[ID_SIZE] : Utils.hexToBytes(graph.getId(size - 1)));
+            out.writeInt(ordered.size());
+            long offset = HEADER_SIZE + (long) ordered.size() * TABLE_ENTRY_SIZE;
+            for (Map.Entry<Integer, long[]> entry : ordered.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(offset);
+                offset += 4 + 8L * entry.getValue().length;
+            }
+            for (long[] compressed : ordered.values()) {
+                out.writeInt(compressed.length);
+                for (long word : compressed) {
+                    out.writeLong(word);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw Utils.error("Could not write %s.", file);
+        }
+    }
+
+    /** Returns WORDS compressed as runs of marker words and literals. */
+    static long[] compress(long[] words) {
+        List<Long> result = new ArrayList<>();
+        int i = 0;
+        while (i < words.length) {
+            long fill = words[i] == -1L ? -1L : 0L;
+            long run = 0;
+            if (words[i] == 0L || words[i] == -1L) {
+                while (i < words.length && words[i] == fill && run < MAX_RUN) {
+                    run += 1;
+                    i += 1;
+                }
+            }
+            int literalStart = i;
+            while (i < words.length && words[i] != 0L && words[i] != -1L
+                    && i - literalStart < LITERALS) {
+                i += 1;
+            }
+            result.add((fill == -1L && run > 0 ? RUN_BIT : 0L) | (run << 32)
+                    | (i - literalStart));
+            for (int k = literalStart; k < i; k += 1) {
+                result.add(words[k]);
+            }
+        }
+        long[] compressed = new long[result.size()];
+        for (int k = 0; k < compressed.length; k += 1) {
+            compressed[k] = result.get(k);
+        }
+        return compressed;
+    }
+
+    /** ORs the bitmap COMPRESSED into WORDS. */
+    static void decompressInto(long[] compressed, long[] words) {
+        int word = 0;
+        int i = 0;
+        while (i < compressed.length) {
+            long marker = compressed[i++];
+            long run = (marker >>> 32) & MAX_RUN;
+            if ((marker & RUN_BIT) != 0) {
+                for (long k = 0; k < run; k += 1) {
+                    words[word + (int) k] = -1L;
+                }
+            }
+            word += (int) run;
+            long literals = marker & LITERALS;
+            for (long k = 0; k < literals; k += 1) {
+                words[word++] |= compressed[i++];
+            }
+        }
+    }
+}
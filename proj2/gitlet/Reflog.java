@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The history of where each branch, and HEAD, has pointed.  Every move is
+ * appended as one line to .gitlet/logs/HEAD or .gitlet/logs/branches/NAME:
+ *
+ *   old commit id, new commit id, time in ms, reason
+ *
+ * separated by spaces, with an old id of all zeros for a branch that was
+ * just created.  HEAD's log has an entry whenever the commit HEAD names
+ * changes, whether its branch moved or another branch was checked out.
+ * Entries are appended through the journal, so recording a move costs the
+ * same however long the log is, and a log is removed with its branch.
+ *
+ * Entries are named as in git: NAME@{0} is the latest entry of NAME's log,
+ * NAME@{1} the one before, and so on.  Entries expire after gc.reflogExpire
+ * days, or after gc.reflogExpireUnreachable days if no branch reaches one
+ * of their commits, as with a deleted branch's entries in HEAD's log.
+ * gc drops the expired entries and keeps the commits of the rest, so that
+ * any of them can be restored.
+ *
+ * @author ZonePG
+ */
+public class Reflog {
+
+    public static final File LOGS_DIR = Utils.join(Repository.GITLET_DIR, "logs");
+    public static final File HEAD_LOG = Utils.join(LOGS_DIR, "HEAD");
+    public static final File BRANCH_LOGS_DIR = Utils.join(LOGS_DIR, "branches");
+
+    private static final String NO_COMMIT = "0".repeat(Utils.UID_LENGTH);
+
+    /** One move of a branch or of HEAD. */
+    public static class Entry {
+        private final String oldId;
+        private final String newId;
+        private final long timestamp;
+        private final String reason;
+
+        private Entry(String oldId, String newId, long timestamp, String reason) {
+            this.oldId = oldId;
+            this.newId = newId;
+            this.timestamp = timestamp;
+            this.reason = reason;
+        }
+
+        /** Returns the commit pointed to before this move, or null if there was none. */
+        public String getOldId() {
+            return oldId;
+        }
+
+        public String getNewId() {
+            return newId;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Records that branch BRANCHNAME moved from OLDID (null if the branch is
+     * new) to NEWID because of REASON, in its log and, if it is the current
+     * branch, in HEAD's.
+     */
+    public static void recordBranch(String branchName, String oldId, String newId,
+            String reason) {
+        append(logFile(branchName), oldId, newId, reason);
+        if (Journal.exists(HEAD.HEAD_FILE) && HEAD.getBranchName().equals(branchName)) {
+            append(HEAD_LOG, oldId, newId, reason);
+        }
+    }
+
+    /**
+     * Records through BATCH that branch BRANCHNAME of the repository whose
+     * .gitlet directory is GITDIR moved from OLDID to NEWID because of
+     * REASON, as recordBranch does for this repository.
+     */
+    public static void recordBranchIn(Journal.Batch batch, File gitDir, String branchName,
+            String oldId, String newId, String reason) {
+        String line = line(oldId, newId, System.currentTimeMillis(), reason);
+        File logsDir = Utils.join(gitDir, LOGS_DIR.getName());
+        batch.append(Utils.join(logsDir, BRANCH_LOGS_DIR.getName(), branchName), line);
+        File headFile = Utils.join(gitDir, HEAD.HEAD_FILE.getName());
+        if (headFile.exists() && Utils.readContentsAsString(headFile).equals(branchName)) {
+            batch.append(Utils.join(logsDir, HEAD_LOG.getName()), line);
+        }
+    }
+
+    /** Records that HEAD moved from commit OLDID to NEWID because of REASON. */
+    public static void recordHead(String oldId, String newId, String reason) {
+        append(HEAD_LOG, oldId, newId, reason);
+    }
+
+    /** Removes the log of branch BRANCHNAME, if it has one. */
+    public static void remove(String branchName) {
+        File file = logFile(branchName);
+        if (Journal.exists(file)) {
+            Journal.delete(file);
+        }
+    }
+
+    /**
+     * Returns the entries in the log of NAME, a branch or "HEAD", latest
+     * first, so that entry N is NAME@{N}.  A branch without a log has none.
+     */
+    public static List<Entry> load(String name) {
+        File file = name.equals("HEAD") ? HEAD_LOG : logFile(name);
+        List<Entry> result = new ArrayList<>();
+        if (!Journal.exists(file)) {
+            return result;
+        }
+        String[] lines = Journal.readContentsAsString(file).split("\n");
+        for (int i = lines.length - 1; i >= 0; i -= 1) {
+            String[] fields = lines[i].split(" ", 4);
+            if (fields.length < 4) {
+                continue;
+            }
+            result.add(new Entry(fields[0].equals(NO_COMMIT) ? null : fields[0], fields[1],
+                    Long.parseLong(fields[2]), fields[3]));
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits named in every log's entries that have not expired. */
+    public static Set<String> commitIds() {
+        Expiry expiry = new Expiry();
+        Set<String> result = new HashSet<>();
+        for (String name : logNames()) {
+            for (Entry entry : load(name)) {
+                if (expiry.expired(entry)) {
+                    continue;
+                }
+                if (entry.oldId != null) {
+                    result.add(entry.oldId);
+                }
+                result.add(entry.newId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the expired entries from every log, removing the logs left
+     * empty, and returns the number dropped.
+     */
+    public static int expire() {
+        Expiry expiry = new Expiry();
+        int dropped = 0;
+        for (String name : logNames()) {
+            List<Entry> entries = load(name);
+            StringBuilder kept = new StringBuilder();
+            int keptCount = 0;
+            for (int i = entries.size() - 1; i >= 0; i -= 1) {
+                Entry entry = entries.get(i);
+                if (!expiry.expired(entry)) {
+                    kept.append(line(entry.oldId, entry.newId, entry.timestamp, entry.reason));
+                    keptCount += 1;
+                }
+            }
+            if (keptCount == entries.size()) {
+                continue;
+            }
+            dropped += entries.size() - keptCount;
+            File file = name.equals("HEAD") ? HEAD_LOG : logFile(name);
+            if (keptCount == 0) {
+                Journal.delete(file);
+            } else {
+                Journal.write(file, kept.toString());
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Makes every log name commit NEWIDS.get(ID) wherever it named a commit
+     * ID that NEWIDS has a key for, as when migrate rewrites commits.  The
+     * entries migrate itself wrote keep the old ids they moved a branch from.
+     */
+    public static void remap(Map<String, String> newIds) {
+        for (String name : logNames()) {
+            List<Entry> entries = load(name);
+            StringBuilder remapped = new StringBuilder();
+            boolean changed = false;
+            for (int i = entries.size() - 1; i >= 0; i -= 1) {
+                Entry entry = entries.get(i);
+                if (entry.reason.startsWith("migrate:")) {
+                    remapped.append(line(entry.oldId, entry.newId, entry.timestamp,
+                            entry.reason));
+                    continue;
+                }
+                String oldId = entry.oldId == null ? null
+                        : newIds.getOrDefault(entry.oldId, entry.oldId);
+                String newId = newIds.getOrDefault(entry.newId, entry.newId);
+                changed |= !Objects.equals(oldId, entry.oldId) || !newId.equals(entry.newId);
+                remapped.append(line(oldId, newId, entry.timestamp, entry.reason));
+            }
+            if (changed) {
+                Journal.write(name.equals("HEAD") ? HEAD_LOG : logFile(name),
+                        remapped.toString());
+            }
+        }
+    }
+
+    /** Decides which entries have expired, as of when it was made. */
+    private static class Expiry {
+        private static final long DAY = 24L * 60 * 60 * 1000;
+
+        private final long cutoff;
+        private final long unreachableCutoff;
+        /** The graph positions of the commits some branch reaches, found when first needed. */
+        private BitSet reachable;
+
+        Expiry() {
+            long now = System.currentTimeMillis();
+            cutoff = now - Config.reflogExpire() * DAY;
+            unreachableCutoff = now - Config.reflogExpireUnreachable() * DAY;
+        }
+
+        boolean expired(Entry entry) {
+            if (entry.timestamp <= cutoff) {
+                return true;
+            }
+            if (entry.timestamp > unreachableCutoff) {
+                return false;
+            }
+            if (reachable == null) {
+                reachable = new BitSet();
+                for (String branch : Branch.allNames()) {
+                    reachable.or(Commit.BITMAPS.reach(Branch.getCommitId(branch)));
+                }
+            }
+            return !reachable(entry.newId) || (entry.oldId != null && !reachable(entry.oldId));
+        }
+
+        private boolean reachable(String commitId) {
+            int pos = Commit.GRAPH.indexOf(commitId);
+            return pos >= 0 && reachable.get(pos);
+        }
+    }
+
+    /** Returns the names of the branches and "HEAD", which may each have a log. */
+    private static List<String> logNames() {
+        List<String> names = new ArrayList<>(Branch.allNames());
+        names.add("HEAD");
+        return names;
+    }
+
+    private static File logFile(String branchName) {
+        return Utils.join(BRANCH_LOGS_DIR, branchName);
+    }
+
+    private static void append(File file, String oldId, String newId, String reason) {
+        Journal.append(file, line(oldId, newId, System.currentTimeMillis(), reason));
+    }
+
+    private static String line(String oldId, String newId, long timestamp, String reason) {
+        // Messages may span lines; a log entry may not.
+        return (oldId == null ? NO_COMMIT : oldId) + " " + newId + " " + timestamp + " "
+                + reason.replace('\n', ' ') + "\n";
+    }
+}
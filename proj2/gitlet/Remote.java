@@ -7,18 +7,18 @@ public class Remote {
     public static final File REMOTE_DIR = Utils.join(Repository.GITLET_DIR, "/remote");
 
     public static void addRemoteGitPath(String remoteName, String remoteGitPath) {
-        Utils.writeContents(Utils.join(REMOTE_DIR, remoteName), remoteGitPath);
+        Journal.write(Utils.join(REMOTE_DIR, remoteName), remoteGitPath);
     }
 
     public static void removeRemoteGitPath(String remoteName) {
-        Utils.join(REMOTE_DIR, remoteName).delete();
+        Journal.delete(Utils.join(REMOTE_DIR, remoteName));
     }
 
     public static String getRemoteGitPath(String remoteName) {
         File remoteFile = Utils.join(REMOTE_DIR, remoteName);
-        if (!remoteFile.exists()) {
+        if (!Journal.exists(remoteFile)) {
             return null;
         }
-        return Utils.readContentsAsString(remoteFile);
+        return Journal.readContentsAsString(remoteFile);
     }
 }
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Pairs files that disappeared between two snapshots with files that
+ * appeared, in the manner of git's rename detection.
+ *
+ * Files with the same blob id are paired first, without reading them.  The
+ * rest are compared by content: each file is cut into chunks that end at a
+ * newline or after MAX_CHUNK bytes, each chunk is hashed, and two files are
+ * as similar as the bytes of the chunks they share, over the size of the
+ * larger one.  Pairs scoring at least MIN_SCORE percent are taken best
+ * first, each file in at most one pair.
+ *
+ * Only pairs that share a chunk found in few files are scored.  An inverted
+ * index from chunk hash to the old files containing it nominates the
+ * candidates for each new file, and chunks that are in more than
+ * MAX_POSTINGS old files, such as blank lines and license headers, are left
+ * out of it; pairs whose sizes differ too much to reach MIN_SCORE are
+ * skipped too.  So the work grows with the number of distinctive chunks two
+ * files share, not with the product of the numbers of files.
+ *
+ * @author ZonePG
+ */
+class Renames {
+
+    /** A file that was renamed from OLDNAME to NEWNAME, keeping SCORE percent of it. */
+    static class Rename {
+        final String oldName;
+        final String newName;
+        final int score;
+
+        Rename(String oldName, String newName, int score) {
+            this.oldName = oldName;
+            this.newName = newName;
+            this.score = score;
+        }
+    }
+
+    /** The least similarity, in percent, for two files to count as a rename. */
+    static final int MIN_SCORE = 50;
+    private static final int MAX_CHUNK = 64;
+    private static final int MAX_POSTINGS = 64;
+    /** Files larger than this are only paired by blob id. */
+    private static final long MAX_SIZE = 8 << 20;
+
+    /**
+     * Returns the renames from the files DELETED, a map from name to blob id,
+     * to the files ADDED, ordered by new name.
+     */
+    static List<Rename> detect(Map<String, String> deleted, Map<String, String> added) {
+        List<Rename> result = new ArrayList<>();
+        Map<String, String> sources = new TreeMap<>();
+        Map<String, String> targets = new TreeMap<>();
+        for (Map.Entry<String, String> entry : deleted.entrySet()) {
+            // Empty files say nothing about where they came from.
+            if (Blob.contentsLength(entry.getValue()) > 0) {
+                sources.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            if (Blob.contentsLength(entry.getValue()) > 0) {
+                targets.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Map<String, Deque<String>> sourcesByBlob = new HashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            sourcesByBlob.computeIfAbsent(entry.getValue(), k -> new ArrayDeque<>())
+                    .add(entry.getKey());
+        }
+        for (Iterator<Map.Entry<String, String>> it = targets.entrySet().iterator();
+                it.hasNext();) {
+            Map.Entry<String, String> entry = it.next();
+            Deque<String> names = sourcesByBlob.get(entry.getValue());
+            if (names != null && !names.isEmpty()) {
+                String oldName = names.poll();
+                result.add(new Rename(oldName, entry.getKey(), 100));
+                sources.remove(oldName);
+                it.remove();
+            }
+        }
+        if (!sources.isEmpty() && !targets.isEmpty()) {
+            result.addAll(similar(sources, targets));
+        }
+        result.sort(Comparator.comparing(rename -> rename.newName));
+        return result;
+    }
+
+    /** Returns the best pairs of SOURCES and TARGETS that are similar enough. */
+    private static List<Rename> similar(Map<String, String> sources,
+            Map<String, String> targets) {
+        List<String> sourceNames = new ArrayList<>();
+        List<Map<Integer, Integer>> sourceChunks = new ArrayList<>();
+        List<Long> sourceSizes = new ArrayList<>();
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            long size = Blob.contentsLength(entry.getValue());
+            if (size > MAX_SIZE) {
+                continue;
+            }
+            Map<Integer, Integer> chunks = chunks(Blob.load(entry.getValue()).getContents());
+            int number = sourceNames.size();
+            sourceNames.add(entry.getKey());
+            sourceChunks.add(chunks);
+            sourceSizes.add(size);
+            for (int hash : chunks.keySet()) {
+                List<Integer> postings = index.computeIfAbsent(hash, k -> new ArrayList<>());
+                if (postings.size() <= MAX_POSTINGS) {
+                    postings.add(number);
+                }
+            }
+        }
+
+        List<Rename> candidates = new ArrayList<>();
+        for (Map.Entry<String, String> entry : targets.entrySet()) {
+            long size = Blob.contentsLength(entry.getValue());
+            if (size > MAX_SIZE) {
+                continue;
+            }
+            Map<Integer, Integer> chunks = chunks(Blob.load(entry.getValue()).getContents());
+            Set<Integer> nominated = new HashSet<>();
+            for (int hash : chunks.keySet()) {
+                List<Integer> postings = index.get(hash);
+                if (postings != null && postings.size() <= MAX_POSTINGS) {
+                    nominated.addAll(postings);
+                }
+            }
+            for (int number : nominated) {
+                long sourceSize = sourceSizes.get(number);
+                long larger = Math.max(size, sourceSize);
+                if (Math.min(size, sourceSize) * 100 < MIN_SCORE * larger) {
+                    continue;
+                }
+                int score = (int) (shared(sourceChunks.get(number), chunks) * 100 / larger);
+                if (score >= MIN_SCORE) {
+                    candidates.add(new Rename(sourceNames.get(number), entry.getKey(), score));
+                }
+            }
+        }
+
+        // Best scores first, and by name among equals, so the result is repeatable.
+        candidates.sort(Comparator.comparingInt((Rename rename) -> -rename.score)
+                .thenComparing(rename -> rename.newName)
+                .thenComparing(rename -> rename.oldName));
+        Set<String> used = new HashSet<>();
+        List<Rename> result = new ArrayList<>();
+        for (Rename rename : candidates) {
+            if (!used.contains(rename.oldName) && !used.contains(rename.newName)) {
+                used.add(rename.oldName);
+                used.add(rename.newName);
+                result.add(rename);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the bytes in the chunks of CONTENTS, by chunk hash. */
+    private static Map<Integer, Integer> chunks(byte[] contents) {
+        Map<Integer, Integer> result = new HashMap<>();
+        int start = 0;
+        int hash = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            hash = hash * 31 + contents[i];
+            if (contents[i] == '\n' || i + 1 - start == MAX_CHUNK || i + 1 == contents.length) {
+                result.merge(hash, i + 1 - start, Integer::sum);
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the bytes of the chunks that A and B have in common. */
+    private static long shared(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        if (a.size() > b.size()) {
+            return shared(b, a);
+        }
+        long total = 0;
+        for (Map.Entry<Integer, Integer> entry : a.entrySet()) {
+            Integer other = b.get(entry.getKey());
+            if (other != null) {
+                total += Math.min(entry.getValue(), other);
+            }
+        }
+        return total;
+    }
+}
@@ -1,8 +1,14 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -21,6 +27,10 @@ public class Repository {
      * The .gitlet directory.
      */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** Unchanged lines shown around each change by the diff command. */
+    private static final int DIFF_CONTEXT = 3;
+    /** A reflog entry, NAME@{N}: the Nth latest entry in NAME's reflog. */
+    private static final Pattern REFLOG_ENTRY = Pattern.compile("(.+)@\\{(\\d+)\\}");
 
     /**
      *
@@ -33,6 +43,7 @@ public class Repository {
         GITLET_DIR.mkdir();
         Commit.COMMITS_DIR.mkdir();
         Blob.BLOBS_DIR.mkdir();
+        Tree.TREES_DIR.mkdir();
         Branch.BRANCHE_DIR.mkdir();
         Remote.REMOTE_DIR.mkdir();
 
@@ -42,37 +53,63 @@ public class Repository {
         StagingArea stagingArea = new StagingArea();
         stagingArea.save();
 
-        Branch.setCommitId("master", initialCommit.getHash());
-        HEAD.setBranchName("master");
+        HEAD.setBranchName("master", "init");
+        Branch.setCommitId("master", initialCommit.getHash(), "commit (initial): "
+                + initialCommit.getMessage());
     }
 
-    public static void addCommand(String fileName) {
-        File newFile = Utils.join(CWD, fileName);
-        if (!newFile.exists()) {
-            Utils.exitWithMessage("File does not exist.");
+    /**
+     * Stages the files named by PATHS.  A path naming a directory (such as
+     * ".") stands for every file beneath it.  Files are hashed and stored in
+     * parallel.
+     */
+    public static void addCommand(List<String> paths) {
+        List<String> fileNames = new ArrayList<>();
+        for (String path : paths) {
+            File file = Utils.join(CWD, path).toPath().normalize().toFile();
+            if (!file.exists()) {
+                Utils.exitWithMessage("File does not exist.");
+            }
+            String fileName = CWD.toPath().relativize(file.toPath()).toString()
+                    .replace(File.separatorChar, '/');
+            if (file.isDirectory()) {
+                collectWorkingFileNames(file, fileName.isEmpty() ? "" : fileName + "/",
+                        fileNames);
+            } else {
+                fileNames.add(fileName);
+            }
         }
 
-        Blob newBlob = new Blob(readContents(newFile));
-        String newBlobId = newBlob.getId();
         Commit currentCommit = Commit.load(Branch.getCommitId(HEAD.getBranchName()));
         StagingArea stagingArea = StagingArea.load();
-        // If the current working version of the file is identical to the version in the current
-        // commit, do not stage it to be added
-        if (newBlobId.equals(currentCommit.getBlobId(fileName))) {
-            stagingArea.clear();
-            stagingArea.save();
-            return;
-        }
-        // and remove it from the staging area if it is already there
-        if (newBlobId.equals(stagingArea.getAddition().get(fileName))) {
-            stagingArea.getAddition().remove(fileName);
+        StatCache statCache = StatCache.load();
+        boolean chunking = Config.chunking();
+        Map<String, String> newBlobIds = new ConcurrentHashMap<>();
+        Workers.forEach(fileNames, fileName -> {
+            String newBlobId = statCache.blobId(fileName);
+            String currentBlobId = currentCommit.getBlobId(fileName);
+            // Store the new version as a delta against the committed one when possible.
+            if (!newBlobId.equals(currentBlobId) && !Blob.STORE.contains(newBlobId)) {
+                newBlobId = Blob.saveFile(Utils.join(CWD, fileName), currentBlobId, chunking);
+            }
+            newBlobIds.put(fileName, newBlobId);
+        });
+        for (String fileName : fileNames) {
+            String newBlobId = newBlobIds.get(fileName);
+            // If the current working version of the file is identical to the version in the
+            // current commit, do not stage it to be added, and remove it from the staging area
+            // if it is already there.
+            if (newBlobId.equals(currentCommit.getBlobId(fileName))) {
+                stagingArea.getAddition().remove(fileName);
+            } else {
+                stagingArea.getAddition().put(fileName, newBlobId);
+            }
+            // The file will no longer be staged for removal (see gitlet rm), if it was at the
+            // time of the command.
+            stagingArea.getRemoval().remove(fileName);
         }
-        stagingArea.getAddition().put(fileName, newBlobId);
-        // The file will no longer be staged for removal (see gitlet rm), if it was at the time
-        // of the command.
-        stagingArea.getRemoval().remove(fileName);
-        newBlob.save();
         stagingArea.save();
+        statCache.save();
     }
 
     private static void commit(String message, String currentCommitId, String mergedCommitId) {
@@ -85,21 +122,18 @@ public class Repository {
         }
 
         // A commit will save and start tracking any files that were staged for addition
-        // but were not tracked by its parent.
-        Commit newCommit = new Commit(message, currentCommitId, mergedCommitId);
-        for (Map.Entry<String, String> entry : stagingArea.getAddition().entrySet()) {
-            String fileName = entry.getKey();
-            String blobId = entry.getValue();
-            newCommit.getBlobs().put(fileName, blobId);
-        }
-        for (String fileName : stagingArea.getRemoval()) {
-            newCommit.getBlobs().remove(fileName);
-        }
+        // but were not tracked by its parent. Only the trees along changed paths are new.
+        Commit currentCommit = Commit.load(currentCommitId);
+        String treeId = Tree.update(currentCommit.getTreeId(), stagingArea.getAddition(),
+                stagingArea.getRemoval());
+        Commit newCommit = new Commit(message, currentCommitId, mergedCommitId, treeId);
 
-        Branch.setCommitId(HEAD.getBranchName(), newCommit.getHash());
+        // The commit is on disk before any ref can point at it.
+        newCommit.save();
+        Branch.setCommitId(HEAD.getBranchName(), newCommit.getHash(),
+                (mergedCommitId == null ? "commit: " : "commit (merge): ") + message);
         stagingArea.clear();
         stagingArea.save();
-        newCommit.save();
     }
 
     public static void commitCommand(String message) {
@@ -118,7 +152,7 @@ public class Repository {
         Commit currentCommit = Commit.load(Branch.getCommitId(HEAD.getBranchName()));
         if (currentCommit.getBlobs().containsKey(fileName)) {
             stagingArea.getRemoval().add(fileName);
-            Utils.join(CWD, fileName).delete();
+            deleteWorkingFile(fileName);
             stagingArea.save();
             return;
         }
@@ -128,34 +162,122 @@ public class Repository {
 
     public static void logCommand() {
         String commitId = Branch.getCommitId(HEAD.getBranchName());
+        Set<String> shallow = Shallow.load();
         while (commitId != null) {
-            Commit commit = Commit.load(commitId);
+            // Only the header is needed, not the commit's files.
+            Commit.Header commit = Commit.loadHeader(commitId);
             assert commit != null;
             System.out.println(commit);
-            commitId = commit.getFirstParentId();
+            // A shallow clone's history stops at the commits whose parents it lacks.
+            commitId = shallow.contains(commitId) ? null : commit.getFirstParentId();
         }
     }
 
-    public static void globalLogCommand() {
-        List<String> commitIdList = Utils.plainFilenamesIn(Commit.COMMITS_DIR);
-        assert commitIdList != null;
-        for (String commitId : commitIdList) {
-            Commit commit = Commit.load(commitId);
-            assert commit != null;
-            System.out.println(commit);
+    /** Prints, as log does, the commits reachable from REVISION B but not from REVISION A. */
+    public static void logRangeCommand(String a, String b) {
+        for (String commitId : commitsBetween(resolveRevision(a), resolveRevision(b))) {
+            System.out.println(Commit.loadHeader(commitId));
+        }
+    }
+
+    /** Prints whether REVISION A is REVISION B or one of its ancestors. */
+    public static void isAncestorCommand(String a, String b) {
+        System.out.println(isAncestor(resolveRevision(a), resolveRevision(b)));
+    }
+
+    /** Prints the id of a latest common ancestor of REVISIONS A and B. */
+    public static void mergeBaseCommand(String a, String b) {
+        String base = mergeBase(resolveRevision(a), resolveRevision(b));
+        if (base != null) {
+            System.out.println(base);
+        }
+    }
+
+    /** Returns true iff commit ANCESTORID is COMMITID or one of its ancestors. */
+    public static boolean isAncestor(String ancestorId, String commitId) {
+        return Commit.BITMAPS.isAncestor(ancestorId, commitId);
+    }
+
+    /** Returns a latest common ancestor of commits A and B, or null if they have none. */
+    public static String mergeBase(String a, String b) {
+        return Commit.BITMAPS.mergeBase(a, b);
+    }
+
+    /**
+     * Returns the commits reachable from INCLUDEID but not from EXCLUDEID,
+     * most recent first, like git's EXCLUDE..INCLUDE.
+     */
+    public static List<String> commitsBetween(String excludeId, String includeId) {
+        return Commit.BITMAPS.range(excludeId, includeId);
+    }
+
+    /**
+     * Returns the id of the commit named by REVISION, a branch name or a
+     * commit id, or of the current commit if REVISION is empty.
+     */
+    private static String resolveRevision(String revision) {
+        // As in git, a missing side of a range means the current commit.
+        if (revision.isEmpty()) {
+            return Branch.getCommitId(HEAD.getBranchName());
+        }
+        String commitId = Branch.getCommitId(revision);
+        if (commitId != null) {
+            return commitId;
+        }
+        commitId = resolveReflogEntry(revision);
+        if (commitId != null) {
+            return commitId;
         }
+        return loadCommitOrExit(revision).getHash();
     }
 
-    public static void findCommand(String message) {
-        List<String> commitIdList = Utils.plainFilenamesIn(Commit.COMMITS_DIR);
-        assert commitIdList != null;
+    /**
+     * Returns the commit named by REVISION if it names a reflog entry, as
+     * NAME@{N} does, or null if it does not.  Only NAME's log is read.
+     */
+    private static String resolveReflogEntry(String revision) {
+        Matcher matcher = REFLOG_ENTRY.matcher(revision);
+        if (!matcher.matches()) {
+            return null;
+        }
+        List<Reflog.Entry> entries = Reflog.load(matcher.group(1));
+        int n = Integer.parseInt(matcher.group(2));
+        if (n >= entries.size()) {
+            exitWithMessage("No such reflog entry.");
+        }
+        return entries.get(n).getNewId();
+    }
+
+    public static void globalLogCommand() {
+        Commit.LOG.forEach(entry -> System.out.println(
+                Commit.toString(entry.getId(), entry.getTimestamp(), entry.getMessage())));
+    }
+
+    /**
+     * Prints the ids of the commits whose message is MESSAGE, or, if MODE is
+     * "--substring" or "--regex", contains MESSAGE or a match for it.
+     */
+    public static void findCommand(String mode, String message) {
+        List<String> commitIdList;
+        if (mode == null) {
+            commitIdList = Commit.LOG.findExact(message);
+        } else if (mode.equals("--substring")) {
+            commitIdList = Commit.LOG.findSubstring(message);
+        } else if (mode.equals("--regex")) {
+            Pattern regex = null;
+            try {
+                regex = Pattern.compile(message);
+            } catch (PatternSyntaxException excp) {
+                exitWithMessage("Invalid regular expression.");
+            }
+            commitIdList = Commit.LOG.findRegex(regex);
+        } else {
+            exitWithMessage("Incorrect operands.");
+            return;
+        }
         StringBuilder builder = new StringBuilder();
         for (String commitId : commitIdList) {
-            Commit commit = Commit.load(commitId);
-            assert commit != null;
-            if (commit.getMessage().equals(message)) {
-                builder.append(commitId).append("\n");
-            }
+            builder.append(commitId).append("\n");
         }
         String output = builder.toString();
         if (output.isEmpty()) {
@@ -164,6 +286,64 @@ public class Repository {
         System.out.println(output);
     }
 
+    /**
+     * Returns the paths, relative to CWD and separated by "/", of all plain
+     * files in the working tree outside .gitlet, in lexicographic order.
+     */
+    private static List<String> workingFileNames() {
+        List<String> result = new ArrayList<>();
+        collectWorkingFileNames(CWD, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void collectWorkingFileNames(File dir, String prefix, List<String> result) {
+        List<String> fileNames = Utils.plainFilenamesIn(dir);
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                result.add(prefix + fileName);
+            }
+        }
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.equals(GITLET_DIR)) {
+                collectWorkingFileNames(child, prefix + child.getName() + "/", result);
+            }
+        }
+    }
+
+    /** Writes blob BLOBID to the working file FILENAME, creating its directories as needed. */
+    private static void checkoutWorkingFile(String fileName, String blobId) {
+        File file = Utils.join(CWD, fileName);
+        // Other threads may be creating the same directories.
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Blob.writeTo(blobId, file);
+    }
+
+    /** Writes CONTENTS to the working file FILENAME, creating its directories as needed. */
+    private static void writeWorkingFile(String fileName, byte[] contents) {
+        File file = Utils.join(CWD, fileName);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, (Object) contents);
+    }
+
+    /** Deletes the working file FILENAME, along with any directories it leaves empty. */
+    private static void deleteWorkingFile(String fileName) {
+        File file = Utils.join(CWD, fileName);
+        file.delete();
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     private static void printListString(List<String> stringList) {
         for (String string : stringList) {
             System.out.println(string);
@@ -187,39 +367,44 @@ public class Repository {
     }
 
     private static List<String> getModificationsNotStagedForCommit(StagingArea stagingArea,
-            Commit currentCommit, List<String> cwdFileNames) {
+            Commit currentCommit, List<String> cwdFileNames, StatCache statCache,
+            Sparse sparse) {
         List<String> result = new ArrayList<>();
         for (String fileName : cwdFileNames) {
-            File file = Utils.join(CWD, fileName);
-            Blob blob = new Blob(readContents(file));
-            // case1: Tracked in the current commit, changed in the working directory, but not
-            // staged; or
             boolean tracked = currentCommit.getBlobs().containsKey(fileName);
-            boolean changed = !blob.getId().equals(currentCommit.getBlobs().get(fileName));
             boolean staged = stagingArea.getAddition().containsKey(fileName);
+            if (!tracked && !staged) {
+                continue;
+            }
+            // Only files whose stat data changed are read and hashed again.
+            String blobId = statCache.blobId(fileName);
+            // case1: Tracked in the current commit, changed in the working directory, but not
+            // staged; or
+            boolean changed = !blobId.equals(currentCommit.getBlobs().get(fileName));
             if (tracked && changed && !staged) {
                 result.add(fileName + " (modified)");
                 continue;
             }
             // case2: Staged for addition, but with different contents than in the working
             // directory; or
-            changed = !blob.getId().equals(stagingArea.getAddition().get(fileName));
+            changed = !blobId.equals(stagingArea.getAddition().get(fileName));
             if (staged && changed) {
                 result.add(fileName + " (modified)");
             }
         }
+        Set<String> cwdFileSet = new HashSet<>(cwdFileNames);
         // case3: Staged for addition, but deleted in the working directory; or
         for (String fileName : stagingArea.getAddition().keySet()) {
-            if (!cwdFileNames.contains(fileName)) {
+            if (!cwdFileSet.contains(fileName)) {
                 result.add(fileName + " (deleted)");
             }
         }
         // case4: Not staged for removal, but tracked in the current commit and deleted from the
-        // working directory.
+        // working directory.  Files left out by sparse checkout are missing on purpose.
         for (String fileName : currentCommit.getBlobs().keySet()) {
             boolean stagedForRemoval = stagingArea.getRemoval().contains(fileName);
-            boolean cwdContains = cwdFileNames.contains(fileName);
-            if (!stagedForRemoval && !cwdContains) {
+            boolean cwdContains = cwdFileSet.contains(fileName);
+            if (!stagedForRemoval && !cwdContains && sparse.includes(fileName)) {
                 result.add(fileName + " (deleted)");
             }
         }
@@ -227,7 +412,12 @@ public class Repository {
         return result;
     }
 
-    public static void statusCommand() {
+    /**
+     * Prints the branches, the staged files and the state of the working
+     * directory.  If RENAMES, the staged removals and additions that look
+     * like one file being renamed are also listed, after the removed files.
+     */
+    public static void statusCommand(boolean renames) {
         // print branches
         System.out.println("=== Branches ===");
         List<String> branches = Utils.plainFilenamesIn(Branch.BRANCHE_DIR);
@@ -252,20 +442,66 @@ public class Repository {
         List<String> removedFiles = new ArrayList<>(stagingArea.getRemoval());
         printListString(removedFiles);
 
-        System.out.println("=== Modifications Not Staged For Commit ===");
         Commit currentCommit = Commit.load(
                 Objects.requireNonNull(Branch.getCommitId(HEAD.getBranchName())));
-        List<String> cwdFileNames = Utils.plainFilenamesIn(CWD);
+        if (renames) {
+            System.out.println("=== Renamed Files ===");
+            for (Renames.Rename rename : stagedRenames(stagingArea, currentCommit)) {
+                System.out.println(rename.oldName + " -> " + rename.newName);
+            }
+            System.out.println();
+        }
+
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        List<String> cwdFileNames = workingFileNames();
         assert cwdFileNames != null;
+        StatCache statCache = StatCache.load();
         List<String> modificationsNotStagedForCommit = getModificationsNotStagedForCommit(
-                stagingArea, currentCommit, cwdFileNames);
+                stagingArea, currentCommit, cwdFileNames, statCache, Sparse.load());
         printListString(modificationsNotStagedForCommit);
+        statCache.retainAll(cwdFileNames);
+        statCache.save();
 
         System.out.println("=== Untracked Files ===");
         List<String> untrackedFiles = getUntrackedFiles(stagingArea, currentCommit, cwdFileNames);
         printListString(untrackedFiles);
     }
 
+    /** Returns the renames that the removals and additions in STAGINGAREA add up to. */
+    private static List<Renames.Rename> stagedRenames(StagingArea stagingArea,
+            Commit currentCommit) {
+        Map<String, String> deleted = new HashMap<>();
+        for (String fileName : stagingArea.getRemoval()) {
+            String blobId = currentCommit.getBlobId(fileName);
+            if (blobId != null) {
+                deleted.put(fileName, blobId);
+            }
+        }
+        Map<String, String> added = new HashMap<>();
+        for (Map.Entry<String, String> entry : stagingArea.getAddition().entrySet()) {
+            if (currentCommit.getBlobId(entry.getKey()) == null) {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Renames.detect(deleted, added);
+    }
+
+    /** Returns the renames from snapshot OLDFILES to snapshot NEWFILES. */
+    private static List<Renames.Rename> renames(Map<String, String> oldFiles,
+            Map<String, String> newFiles) {
+        Map<String, String> deleted = new HashMap<>(oldFiles);
+        deleted.keySet().removeAll(newFiles.keySet());
+        Map<String, String> added = new HashMap<>(newFiles);
+        added.keySet().removeAll(oldFiles.keySet());
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Renames.detect(deleted, added);
+    }
+
     private static void checkoutFile(String commitId, String fileName) {
         Commit commit = Commit.load(commitId);
         if (commit == null) {
@@ -276,8 +512,7 @@ public class Repository {
         if (blobId == null) {
             exitWithMessage("File does not exist in that commit.");
         }
-        byte[] blobContents = Utils.readContents(Utils.join(Blob.BLOBS_DIR, blobId));
-        Utils.writeContents(Utils.join(CWD, fileName), (Object) blobContents);
+        checkoutWorkingFile(fileName, blobId);
     }
 
     private static void checkoutCommit(Commit commit) {
@@ -286,13 +521,14 @@ public class Repository {
         assert currentCommitId != null;
         Commit currentCommit = Commit.load(currentCommitId);
         assert currentCommit != null;
-        List<String> cwdFileNames = Utils.plainFilenamesIn(CWD);
+        List<String> cwdFileNames = workingFileNames();
         assert cwdFileNames != null;
         Set<String> fileNames = commit.getBlobs().keySet();
+        Sparse sparse = Sparse.load();
         List<String> untrackedFiles = getUntrackedFiles(stagingArea, currentCommit, cwdFileNames);
         if (!untrackedFiles.isEmpty()) {
             for (String untrackedFileName : untrackedFiles) {
-                if (fileNames.contains(untrackedFileName)) {
+                if (fileNames.contains(untrackedFileName) && sparse.includes(untrackedFileName)) {
                     exitWithMessage(
                             "There is an untracked file in the way; delete it, or add and commit "
                                     + "it first.");
@@ -305,15 +541,37 @@ public class Repository {
         // Takes all files in the commit at the head of the given branch, and puts them in the
         // working directory,
         // overwriting the versions of the files that are already there if they exist.
+        // Files outside the sparse-checkout patterns are neither written nor deleted.
+        List<String> checkedOut = new ArrayList<>();
         for (String fileName : fileNames) {
-            String blobId = commit.getBlobs().get(fileName);
-            byte[] blobContents = Utils.readContents(Utils.join(Blob.BLOBS_DIR, blobId));
-            Utils.writeContents(Utils.join(CWD, fileName), (Object) blobContents);
+            if (sparse.includes(fileName)) {
+                checkedOut.add(fileName);
+            }
+        }
+        List<String> blobIds = new ArrayList<>();
+        for (String fileName : checkedOut) {
+            blobIds.add(commit.getBlobId(fileName));
         }
+        // A partial clone fetches the blobs it left out in one go, not one by one.
+        Promisor.fetch(blobIds);
+        StatCache statCache = StatCache.load();
+        Workers.forEach(checkedOut, fileName -> {
+            String blobId = commit.getBlobs().get(fileName);
+            File file = Utils.join(CWD, fileName);
+            // Files that already hold the right version are left alone.
+            if (blobId.equals(currentCommit.getBlobId(fileName)) && file.isFile()
+                    && blobId.equals(statCache.blobId(fileName))) {
+                return;
+            }
+            checkoutWorkingFile(fileName, blobId);
+            statCache.update(fileName, blobId);
+        });
+        statCache.retainAll(fileNames);
+        statCache.save();
 
         for (String fileName : currentCommit.getBlobs().keySet()) {
-            if (!fileNames.contains(fileName)) {
-                Utils.join(CWD, fileName).delete();
+            if (!fileNames.contains(fileName) && sparse.includes(fileName)) {
+                deleteWorkingFile(fileName);
             }
         }
         // The staging area is cleared,
@@ -333,7 +591,8 @@ public class Repository {
         Commit commit = Commit.load(commitId);
         checkoutCommit(commit);
         // the given branch will now be considered the current branch (HEAD).
-        HEAD.setBranchName(branchName);
+        HEAD.setBranchName(branchName,
+                "checkout: moving from " + HEAD.getBranchName() + " to " + branchName);
     }
 
     public static void checkoutCommand(String[] args) {
@@ -364,24 +623,131 @@ public class Repository {
         exitWithMessage("Incorrect operands.");
     }
 
+    /**
+     * Lists, sets or turns off the sparse-checkout patterns, as ARGS says:
+     * "sparse-checkout list", "sparse-checkout set [pattern]..." or
+     * "sparse-checkout disable".  Setting or turning off the patterns writes
+     * out the files they now take in and deletes the unchanged ones they
+     * leave out; changed files are left in place, and not overwritten when
+     * they are taken in again.
+     */
+    public static void sparseCheckoutCommand(String[] args) {
+        if (args.length == 2 && args[1].equals("list")) {
+            for (String pattern : Sparse.load().getPatterns()) {
+                System.out.println(pattern);
+            }
+            return;
+        }
+        boolean set = args.length >= 3 && args[1].equals("set");
+        if (!set && !(args.length == 2 && args[1].equals("disable"))) {
+            exitWithMessage("Incorrect operands.");
+        }
+        StagingArea stagingArea = StagingArea.load();
+        if (!stagingArea.getAddition().isEmpty() || !stagingArea.getRemoval().isEmpty()) {
+            exitWithMessage("You have uncommitted changes.");
+        }
+        Commit currentCommit = Commit.load(Branch.getCommitId(HEAD.getBranchName()));
+        Sparse oldSparse = Sparse.load();
+        Sparse newSparse = set ? Sparse.set(Arrays.asList(args).subList(2, args.length))
+                : Sparse.disable();
+
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String fileName : currentCommit.getBlobs().keySet()) {
+            boolean before = oldSparse.includes(fileName);
+            boolean after = newSparse.includes(fileName);
+            if (after && !before) {
+                added.add(fileName);
+            } else if (before && !after) {
+                removed.add(fileName);
+            }
+        }
+        StatCache statCache = StatCache.load();
+        Workers.forEach(added, fileName -> {
+            // A file already there is a changed one that was left in place.
+            if (Utils.join(CWD, fileName).exists()) {
+                return;
+            }
+            String blobId = currentCommit.getBlobId(fileName);
+            checkoutWorkingFile(fileName, blobId);
+            statCache.update(fileName, blobId);
+        });
+        for (String fileName : removed) {
+            File file = Utils.join(CWD, fileName);
+            if (file.isFile()
+                    && statCache.blobId(fileName).equals(currentCommit.getBlobId(fileName))) {
+                deleteWorkingFile(fileName);
+            }
+        }
+        statCache.retainAll(workingFileNames());
+        statCache.save();
+    }
+
     public static void branchCommand(String branchName) {
-        if (Utils.join(Branch.BRANCHE_DIR, branchName).exists()) {
+        if (Branch.exists(branchName)) {
             exitWithMessage("A branch with that name already exists.");
         }
 
         String currentCommitId = Branch.getCommitId(HEAD.getBranchName());
-        Branch.setCommitId(branchName, currentCommitId);
+        Branch.setCommitId(branchName, currentCommitId, "branch: Created from HEAD");
     }
 
     public static void rmBranchCommand(String branchName) {
-        File findBranchFile = Utils.join(Branch.BRANCHE_DIR, branchName);
-        if (!findBranchFile.exists()) {
+        if (!Branch.exists(branchName)) {
             exitWithMessage("A branch with that name does not exist.");
         }
         if (HEAD.getBranchName().equals(branchName)) {
             exitWithMessage("Cannot remove the current branch.");
         }
-        findBranchFile.delete();
+        Branch.remove(branchName);
+    }
+
+    /** Prints the reflog of NAME, a branch or "HEAD", latest entry first. */
+    public static void reflogCommand(String name) {
+        if (!name.equals("HEAD") && !Branch.exists(name)) {
+            exitWithMessage("A branch with that name does not exist.");
+        }
+        List<Reflog.Entry> entries = Reflog.load(name);
+        StringBuilder output = new StringBuilder();
+        for (int n = 0; n < entries.size(); n += 1) {
+            output.append(entries.get(n).getNewId()).append(' ').append(name).append("@{")
+                    .append(n).append("}: ").append(entries.get(n).getReason()).append('\n');
+        }
+        System.out.print(output);
+    }
+
+    /**
+     * Drops the reflog entries older than gc.reflogExpire days, or than
+     * gc.reflogExpireUnreachable days if no branch reaches their commit.
+     */
+    public static void reflogExpireCommand() {
+        Reflog.expire();
+    }
+
+    /**
+     * Points branch NAME, or the current branch if NAME is "HEAD", back at the
+     * commit of reflog entry NAME@{N}, given as REVISION.  If that is the
+     * current branch, the working tree is checked out as by reset.
+     */
+    public static void reflogRestoreCommand(String revision) {
+        Matcher matcher = REFLOG_ENTRY.matcher(revision);
+        if (!matcher.matches()) {
+            exitWithMessage("Incorrect operands.");
+        }
+        String branchName = matcher.group(1).equals("HEAD") ? HEAD.getBranchName()
+                : matcher.group(1);
+        if (!Branch.exists(branchName)) {
+            exitWithMessage("A branch with that name does not exist.");
+        }
+        Commit commit = Commit.load(resolveReflogEntry(revision));
+        if (commit == null) {
+            exitWithMessage("No commit with that id exists.");
+            return;
+        }
+        if (branchName.equals(HEAD.getBranchName())) {
+            checkoutCommit(commit);
+        }
+        Branch.setCommitId(branchName, commit.getHash(), "reflog-restore: moving to " + revision);
     }
 
     public static void resetCommand(String commitId) {
@@ -391,77 +757,180 @@ public class Repository {
             return;
         }
         checkoutCommit(commit);
-        Branch.setCommitId(HEAD.getBranchName(), commit.getHash());
+        Branch.setCommitId(HEAD.getBranchName(), commit.getHash(),
+                "reset: moving to " + commit.getHash());
     }
 
     private static String getSplitPointCommitId(String currentCommitId, String mergedCommitId) {
-        Set<String> commitSet = new HashSet<>();
-        Queue<String> bfsQueue = new ArrayDeque<>();
-        bfsQueue.add(currentCommitId);
-        while (!bfsQueue.isEmpty()) {
-            String commitId = bfsQueue.remove();
-            Commit commit = Commit.load(commitId);
-            commitSet.add(commitId);
-            if (commit.getFirstParentId() != null) {
-                bfsQueue.add(commit.getFirstParentId());
-            }
-            if (commit.getSecondParentId() != null) {
-                bfsQueue.add(commit.getSecondParentId());
-            }
-        }
-
-        bfsQueue.add(mergedCommitId);
-        while (!bfsQueue.isEmpty()) {
-            String commitId = bfsQueue.remove();
-            Commit commit = Commit.load(commitId);
-            if (commitSet.contains(commitId)) {
-                return commitId;
-            }
-            if (commit.getFirstParentId() != null) {
-                bfsQueue.add(commit.getFirstParentId());
-            }
-            if (commit.getSecondParentId() != null) {
-                bfsQueue.add(commit.getSecondParentId());
-            }
-        }
-
-        return null;
+        return Commit.BITMAPS.mergeBase(currentCommitId, mergedCommitId);
     }
 
-
     private static String conflictFileContents(String currentBlobId, String mergedBlobId) {
         String currentContents;
         String mergedContents;
         if (currentBlobId == null) {
             currentContents = "";
         } else {
-            currentContents = Utils.readContentsAsString(Utils.join(Blob.BLOBS_DIR, currentBlobId));
+            currentContents = new String(Blob.load(currentBlobId).getContents(),
+                    StandardCharsets.UTF_8);
         }
         if (mergedBlobId == null) {
             mergedContents = "";
         } else {
-            mergedContents = Utils.readContentsAsString(Utils.join(Blob.BLOBS_DIR, mergedBlobId));
+            mergedContents = new String(Blob.load(mergedBlobId).getContents(),
+                    StandardCharsets.UTF_8);
         }
         return "<<<<<<< HEAD\n" + currentContents + "=======\n" + mergedContents + ">>>>>>>\n";
     }
 
     private static void processConflict(StagingArea stagingArea, String fileName,
             String currentBlobId, String mergedBlobId) {
-        String newContents = conflictFileContents(currentBlobId, mergedBlobId);
+        stageMergedFile(stagingArea, fileName, conflictFileContents(currentBlobId, mergedBlobId),
+                true);
+    }
+
+    /** Stages NEWCONTENTS as FILENAME, and writes it to the working tree if WRITE. */
+    private static void stageMergedFile(StagingArea stagingArea, String fileName,
+            String newContents, boolean write) {
         Blob newBlob = new Blob(newContents.getBytes(StandardCharsets.UTF_8));
         newBlob.save();
-        File file = Utils.join(CWD, fileName);
-        Utils.writeContents(file, newContents);
+        if (write) {
+            writeWorkingFile(fileName, newContents.getBytes(StandardCharsets.UTF_8));
+        }
         stagingArea.getAddition().put(fileName, newBlob.getId());
     }
 
+    /** Stages blob BLOBID as FILENAME, writing it out unless SPARSE leaves it out. */
+    private static void stageMergedBlob(StagingArea stagingArea, Sparse sparse, String fileName,
+            String blobId) {
+        if (sparse.includes(fileName)) {
+            checkoutWorkingFile(fileName, blobId);
+        }
+        stagingArea.getAddition().put(fileName, blobId);
+    }
+
+    /**
+     * Merges the current and given versions of FILENAME line by line against
+     * its version at the split point, which is null if it was absent there,
+     * and stages the result.  Returns true iff any lines conflicted.  Binary
+     * files conflict as a whole.  Conflicted files are always written out, so
+     * they can be resolved; others only if SPARSE takes them in.
+     */
+    private static boolean mergeFile(StagingArea stagingArea, Sparse sparse, String fileName,
+            String splitBlobId, String currentBlobId, String mergedBlobId) {
+        byte[] base = splitBlobId == null ? new byte[0] : Blob.load(splitBlobId).getContents();
+        byte[] current = Blob.load(currentBlobId).getContents();
+        byte[] merged = Blob.load(mergedBlobId).getContents();
+        if (isBinary(base) || isBinary(current) || isBinary(merged)) {
+            processConflict(stagingArea, fileName, currentBlobId, mergedBlobId);
+            return true;
+        }
+        TextMerge result = TextMerge.merge(new String(base, StandardCharsets.UTF_8),
+                new String(current, StandardCharsets.UTF_8),
+                new String(merged, StandardCharsets.UTF_8));
+        stageMergedFile(stagingArea, fileName, result.getText(),
+                result.hasConflict() || sparse.includes(fileName));
+        return result.hasConflict();
+    }
+
+    private static boolean isBinary(byte[] contents) {
+        for (byte b : contents) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges the files that one branch renamed since the split point and the
+     * other kept under their old names, so that changes made on either side
+     * end up in the renamed file instead of conflicting with its deletion.
+     * Returns true iff any lines conflicted, and adds every name it dealt
+     * with to HANDLED.
+     */
+    private static boolean processRenames(StagingArea stagingArea, Sparse sparse,
+            Map<String, String> splitBlobs, Map<String, String> currentBlobs,
+            Map<String, String> mergedBlobs, Set<String> handled) {
+        boolean conflict = false;
+        Map<String, String> currentRenames = new HashMap<>();
+        for (Renames.Rename rename : renames(splitBlobs, currentBlobs)) {
+            currentRenames.put(rename.oldName, rename.newName);
+        }
+        for (Renames.Rename rename : renames(splitBlobs, mergedBlobs)) {
+            String oldName = rename.oldName;
+            String newName = rename.newName;
+            String currentName = currentRenames.remove(oldName);
+            if (currentName == null && currentBlobs.containsKey(oldName)
+                    && !currentBlobs.containsKey(newName)) {
+                // Renamed in the given branch only: carry the current changes over.
+                conflict |= mergeRenamed(stagingArea, sparse, newName, splitBlobs.get(oldName),
+                        currentBlobs.get(oldName), mergedBlobs.get(newName), null);
+                deleteWorkingFile(oldName);
+                stagingArea.getRemoval().add(oldName);
+            } else if (newName.equals(currentName)) {
+                // Renamed the same way in both.
+                conflict |= mergeRenamed(stagingArea, sparse, newName, splitBlobs.get(oldName),
+                        currentBlobs.get(newName), mergedBlobs.get(newName),
+                        currentBlobs.get(newName));
+            } else {
+                continue;
+            }
+            handled.add(oldName);
+            handled.add(newName);
+        }
+        for (Map.Entry<String, String> rename : currentRenames.entrySet()) {
+            String oldName = rename.getKey();
+            String newName = rename.getValue();
+            if (mergedBlobs.containsKey(oldName) && !mergedBlobs.containsKey(newName)) {
+                // Renamed in the current branch only: bring the given changes over.
+                conflict |= mergeRenamed(stagingArea, sparse, newName, splitBlobs.get(oldName),
+                        currentBlobs.get(newName), mergedBlobs.get(oldName),
+                        currentBlobs.get(newName));
+                handled.add(oldName);
+                handled.add(newName);
+            }
+        }
+        return conflict;
+    }
+
+    /**
+     * Merges the versions SPLITBLOBID, CURRENTBLOBID and MERGEDBLOBID of a
+     * renamed file into FILENAME, where the current commit already has
+     * TRACKEDBLOBID, and stages the result if it differs.  Returns true iff
+     * any lines conflicted.
+     */
+    private static boolean mergeRenamed(StagingArea stagingArea, Sparse sparse,
+            String fileName, String splitBlobId, String currentBlobId, String mergedBlobId,
+            String trackedBlobId) {
+        String resultBlobId;
+        if (mergedBlobId.equals(splitBlobId) || mergedBlobId.equals(currentBlobId)) {
+            resultBlobId = currentBlobId;
+        } else if (currentBlobId.equals(splitBlobId)) {
+            resultBlobId = mergedBlobId;
+        } else {
+            return mergeFile(stagingArea, sparse, fileName, splitBlobId, currentBlobId,
+                    mergedBlobId);
+        }
+        if (!resultBlobId.equals(trackedBlobId)) {
+            stageMergedBlob(stagingArea, sparse, fileName, resultBlobId);
+        }
+        return false;
+    }
+
     private static boolean processMerge(StagingArea stagingArea, Commit splitPointCommit,
             Commit currentCommit, Commit mergedCommit) {
-        boolean conflict = false;
         HashMap<String, String> splitBlobs = splitPointCommit.getBlobs();
         HashMap<String, String> currentBlobs = currentCommit.getBlobs();
         HashMap<String, String> mergedBlobs = mergedCommit.getBlobs();
+        Sparse sparse = Sparse.load();
+        Set<String> handled = new HashSet<>();
+        boolean conflict = processRenames(stagingArea, sparse, splitBlobs, currentBlobs,
+                mergedBlobs, handled);
         for (String fileName : mergedBlobs.keySet()) {
+            if (handled.contains(fileName)) {
+                continue;
+            }
             // modified in the given branch since the split point
             String mergedBlobId = mergedBlobs.get(fileName);
             String splitBlobId = splitBlobs.get(fileName);
@@ -471,8 +940,7 @@ public class Repository {
             // changed to their versions in the given branch
             if (splitBlobId != null && !mergedBlobId.equals(splitBlobId)) {
                 if (splitBlobId.equals(currentBlobId)) {
-                    checkoutFile(mergedCommit.getHash(), fileName);
-                    stagingArea.getAddition().put(fileName, mergedBlobId);
+                    stageMergedBlob(stagingArea, sparse, fileName, mergedBlobId);
                     continue;
                 }
             }
@@ -481,8 +949,7 @@ public class Repository {
             // case5: Any files that were not present at the split point and are present only in
             // the given branch should be checked out and staged.
             if (splitBlobId == null && currentBlobId == null) {
-                checkoutFile(mergedCommit.getHash(), fileName);
-                stagingArea.getAddition().put(fileName, mergedBlobId);
+                stageMergedBlob(stagingArea, sparse, fileName, mergedBlobId);
                 continue;
             }
             // case7: keep same
@@ -495,6 +962,9 @@ public class Repository {
         }
 
         for (String fileName : currentBlobs.keySet()) {
+            if (handled.contains(fileName)) {
+                continue;
+            }
             String currentBlobId = currentBlobs.get(fileName);
             String splitBlobId = splitBlobs.get(fileName);
             String mergedBlobId = mergedBlobs.get(fileName);
@@ -504,17 +974,18 @@ public class Repository {
             // absent in the given branch should be removed (and untracked).
             if (currentBlobId.equals(splitBlobId)) {
                 if (mergedBlobId == null) {
-                    Utils.join(CWD, fileName).delete();
+                    deleteWorkingFile(fileName);
                     stagingArea.getRemoval().add(fileName);
                     continue;
                 }
             }
-            // case8: the contents of both are changed and different from other
+            // case8: the contents of both are changed and different from other; only the
+            // lines both sides changed conflict
             if (splitBlobId != null && mergedBlobId != null) {
                 if (!currentBlobId.equals(splitBlobId) && !mergedBlobId.equals(splitBlobId)) {
                     if (!currentBlobId.equals(mergedBlobId)) {
-                        conflict = true;
-                        processConflict(stagingArea, fileName, currentBlobId, mergedBlobId);
+                        conflict |= mergeFile(stagingArea, sparse, fileName, splitBlobId,
+                                currentBlobId, mergedBlobId);
                     }
                 }
             }
@@ -527,8 +998,8 @@ public class Repository {
             // given and current branches.
             if (splitBlobId == null && currentBlobId != null && mergedBlobId != null) {
                 if (!currentBlobId.equals(mergedBlobId)) {
-                    conflict = true;
-                    processConflict(stagingArea, fileName, currentBlobId, mergedBlobId);
+                    conflict |= mergeFile(stagingArea, sparse, fileName, null,
+                            currentBlobId, mergedBlobId);
                 }
             }
         }
@@ -554,7 +1025,7 @@ public class Repository {
         assert currentCommitId != null;
         Commit currentCommit = Commit.load(currentCommitId);
         assert currentCommit != null;
-        List<String> cwdFileNames = Utils.plainFilenamesIn(CWD);
+        List<String> cwdFileNames = workingFileNames();
         assert cwdFileNames != null;
         List<String> untrackedFiles = getUntrackedFiles(stagingArea, currentCommit, cwdFileNames);
         if (!untrackedFiles.isEmpty()) {
@@ -572,6 +1043,10 @@ public class Repository {
                             + ".");
         }
         String splitPointCommitId = getSplitPointCommitId(currentCommitId, mergedCommitId);
+        // A shallow clone may lack the history the two branches share.
+        if (splitPointCommitId == null) {
+            exitWithMessage("No common ancestor; history is shallow.");
+        }
         // If the split point is the same commit as the given branch, then we do nothing;
         if (splitPointCommitId.equals(mergedCommitId)) {
             exitWithMessage("Given branch is an ancestor of the current branch.");
@@ -580,7 +1055,8 @@ public class Repository {
         //  branch
         if (splitPointCommitId.equals(currentCommitId)) {
             checkoutCommit(mergedCommit);
-            Branch.setCommitId(HEAD.getBranchName(), mergedCommitId);
+            Branch.setCommitId(HEAD.getBranchName(), mergedCommitId,
+                    "merge " + branchName + ": Fast-forward");
             exitWithMessage("Current branch fast-forwarded.");
         }
         Commit splitPointCommit = Commit.load(splitPointCommitId);
@@ -596,6 +1072,114 @@ public class Repository {
         }
     }
 
+    /**
+     * Prints a unified diff for every file that differs between two
+     * snapshots: the staged files and the working tree when COMMITIDS is
+     * empty, the given commit and the working tree when it has one id, and
+     * the two given commits when it has two.  Between two commits, files
+     * that were renamed are shown as a rename and the changes made to them.
+     * Files outside the sparse-checkout patterns are not compared with the
+     * working tree, where they are missing on purpose.
+     */
+    public static void diffCommand(List<String> commitIds) {
+        Map<String, String> oldFiles;
+        Map<String, String> newFiles = null;
+        if (commitIds.isEmpty()) {
+            StagingArea stagingArea = StagingArea.load();
+            oldFiles = new HashMap<>(Commit.load(Branch.getCommitId(HEAD.getBranchName()))
+                    .getBlobs());
+            oldFiles.putAll(stagingArea.getAddition());
+            oldFiles.keySet().removeAll(stagingArea.getRemoval());
+        } else {
+            oldFiles = loadCommitOrExit(commitIds.get(0)).getBlobs();
+            if (commitIds.size() > 1) {
+                newFiles = loadCommitOrExit(commitIds.get(1)).getBlobs();
+            }
+        }
+        TreeSet<String> fileNames = new TreeSet<>(oldFiles.keySet());
+        Sparse sparse = newFiles == null ? Sparse.load() : null;
+        Map<String, Renames.Rename> renamed = new HashMap<>();
+        if (newFiles != null) {
+            fileNames.addAll(newFiles.keySet());
+            for (Renames.Rename rename : renames(oldFiles, newFiles)) {
+                renamed.put(rename.newName, rename);
+                fileNames.remove(rename.oldName);
+            }
+        }
+        for (String fileName : fileNames) {
+            Renames.Rename rename = renamed.get(fileName);
+            if (rename != null) {
+                printRenameDiff(rename, Blob.load(oldFiles.get(rename.oldName)).getContents(),
+                        Blob.load(newFiles.get(fileName)).getContents());
+                continue;
+            }
+            String oldBlobId = oldFiles.get(fileName);
+            byte[] oldContents = oldBlobId == null ? null : Blob.load(oldBlobId).getContents();
+            byte[] newContents;
+            if (newFiles != null) {
+                String newBlobId = newFiles.get(fileName);
+                if (Objects.equals(oldBlobId, newBlobId)) {
+                    continue;
+                }
+                newContents = newBlobId == null ? null : Blob.load(newBlobId).getContents();
+            } else {
+                if (!sparse.includes(fileName)) {
+                    continue;
+                }
+                File file = Utils.join(CWD, fileName);
+                newContents = file.isFile() ? Utils.readContents(file) : null;
+            }
+            if (!Arrays.equals(oldContents, newContents)) {
+                printFileDiff(fileName, oldContents, newContents);
+            }
+        }
+    }
+
+    private static Commit loadCommitOrExit(String commitId) {
+        Commit commit = Commit.load(commitId);
+        if (commit == null) {
+            exitWithMessage("No commit with that id exists.");
+        }
+        return commit;
+    }
+
+    /** Prints the diff of FILENAME from OLDCONTENTS to NEWCONTENTS, either of which may be null. */
+    private static void printFileDiff(String fileName, byte[] oldContents, byte[] newContents) {
+        System.out.println("diff --git a/" + fileName + " b/" + fileName);
+        printContentsDiff(fileName, fileName, oldContents, newContents);
+    }
+
+    /** Prints, as git does, RENAME and the changes from OLDCONTENTS to NEWCONTENTS. */
+    private static void printRenameDiff(Renames.Rename rename, byte[] oldContents,
+            byte[] newContents) {
+        System.out.println("diff --git a/" + rename.oldName + " b/" + rename.newName);
+        System.out.println("similarity index " + rename.score + "%");
+        System.out.println("rename from " + rename.oldName);
+        System.out.println("rename to " + rename.newName);
+        if (!Arrays.equals(oldContents, newContents)) {
+            printContentsDiff(rename.oldName, rename.newName, oldContents, newContents);
+        }
+    }
+
+    /** Prints the hunks that turn OLDCONTENTS of OLDNAME into NEWCONTENTS of NEWNAME. */
+    private static void printContentsDiff(String oldName, String newName, byte[] oldContents,
+            byte[] newContents) {
+        if ((oldContents != null && isBinary(oldContents))
+                || (newContents != null && isBinary(newContents))) {
+            System.out.println("Binary files "
+                    + (oldContents == null ? "/dev/null" : "a/" + oldName) + " and "
+                    + (newContents == null ? "/dev/null" : "b/" + newName) + " differ");
+            return;
+        }
+        System.out.println("--- " + (oldContents == null ? "/dev/null" : "a/" + oldName));
+        System.out.println("+++ " + (newContents == null ? "/dev/null" : "b/" + newName));
+        List<String> oldLines = Diff.lines(oldContents == null ? ""
+                : new String(oldContents, StandardCharsets.UTF_8));
+        List<String> newLines = Diff.lines(newContents == null ? ""
+                : new String(newContents, StandardCharsets.UTF_8));
+        System.out.print(Diff.unified(oldLines, newLines, DIFF_CONTEXT));
+    }
+
     public static void addRemoteCommand(String remoteName, String remoteGitPath) {
         if (Remote.getRemoteGitPath(remoteName) != null) {
             exitWithMessage("A remote with that name already exists.");
@@ -613,37 +1197,452 @@ public class Repository {
         Remote.removeRemoteGitPath(remoteName);
     }
 
+    /**
+     * Copies the current branch's history to branch REMOTEBRANCHNAME of remote
+     * REMOTENAME and moves that branch to the current head.  Only objects the
+     * remote lacks are sent.
+     */
     public static void pushCommand(String remoteName, String remoteBranchName) {
+        File remoteGitDir = getRemoteGitDir(remoteName);
+        RepositoryLock remoteLock = RepositoryLock.acquireIn(remoteGitDir, false);
+        try {
+            String localCommitId = Branch.getCommitId(HEAD.getBranchName());
+            String remoteCommitId = Branch.getRemoteCommitId(remoteGitDir.getPath(),
+                    remoteBranchName);
+            if (remoteCommitId != null
+                    && !Commit.BITMAPS.isAncestor(remoteCommitId, localCommitId)) {
+                exitWithMessage("Please pull down remote changes before pushing.");
+            }
+            ObjectTransfer.Stores remoteStores = ObjectTransfer.Stores.in(remoteGitDir);
+            new ObjectTransfer(ObjectTransfer.Stores.local(), remoteStores).copy(localCommitId);
+            CommitGraph remoteGraph = new CommitGraph(Utils.join(remoteGitDir, "commit-graph"),
+                    remoteStores.commits());
+            remoteGraph.add(Commit.load(localCommitId));
+            Branch.setRemoteCommitId(remoteGitDir.getPath(), remoteBranchName, localCommitId,
+                    "push");
+        } finally {
+            if (remoteLock != null) {
+                remoteLock.release();
+            }
+        }
+    }
+
+    /**
+     * Copies the history of branch REMOTEBRANCHNAME of remote REMOTENAME into
+     * this repository, and points the branch REMOTENAME/REMOTEBRANCHNAME at it.
+     */
+    public static void fetchCommand(String remoteName, String remoteBranchName) {
+        File remoteGitDir = getRemoteGitDir(remoteName);
+        String remoteCommitId;
+        RepositoryLock remoteLock = RepositoryLock.acquireIn(remoteGitDir, true);
+        try {
+            remoteCommitId = Branch.getRemoteCommitId(remoteGitDir.getPath(), remoteBranchName);
+            if (remoteCommitId == null) {
+                exitWithMessage("That remote does not have that branch.");
+            }
+            // A partial clone keeps leaving out the blobs it was cloned without.
+            new ObjectTransfer(ObjectTransfer.Stores.in(remoteGitDir),
+                    ObjectTransfer.Stores.local(), 0, Promisor.blobLimit()).copy(remoteCommitId);
+        } finally {
+            if (remoteLock != null) {
+                remoteLock.release();
+            }
+        }
+        Commit.GRAPH.add(Commit.load(remoteCommitId));
+        Branch.setCommitId(remoteName + "/" + remoteBranchName, remoteCommitId,
+                "fetch: " + remoteName + " " + remoteBranchName);
+    }
+
+    /**
+     * Makes a new repository in the current directory from the repository
+     * whose .gitlet directory is named by the last of ARGS, with "origin" as
+     * a remote for it and remote-tracking branches for all its branches, and
+     * checks out its current branch.  "--depth N" copies only the last N
+     * generations of history, listing the commits it stops at in
+     * .gitlet/shallow, and "--blob-limit SIZE" leaves out blobs longer than
+     * SIZE, fetching them from origin when they are first needed.
+     */
+    public static void cloneCommand(String[] args) {
+        int depth = 0;
+        long blobLimit = -1;
+        int i = 1;
+        try {
+            for (; i < args.length - 1; i += 2) {
+                if (args[i].equals("--depth")) {
+                    depth = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--blob-limit")) {
+                    blobLimit = Promisor.parseSize(args[i + 1]);
+                } else {
+                    break;
+                }
+            }
+        } catch (NumberFormatException excp) {
+            exitWithMessage("Incorrect operands.");
+        }
+        if (i != args.length - 1 || depth < 0) {
+            exitWithMessage("Incorrect operands.");
+        }
+        File remoteGitDir = new File(args[i]);
+        if (!Utils.join(remoteGitDir, "branches").isDirectory()) {
+            exitWithMessage("Remote directory not found.");
+        }
+        if (GITLET_DIR.exists()) {
+            exitWithMessage("A Gitlet version-control system already exists in the current "
+                    + "directory.");
+        }
+        String remoteHead;
+        Map<String, String> tips = new TreeMap<>();
+        ObjectTransfer transfer = new ObjectTransfer(ObjectTransfer.Stores.in(remoteGitDir),
+                ObjectTransfer.Stores.local(), depth, blobLimit);
+        RepositoryLock remoteLock = RepositoryLock.acquireIn(remoteGitDir, true);
+        try {
+            remoteHead = Utils.readContentsAsString(Utils.join(remoteGitDir, "head"));
+            initCommand();
+            Remote.addRemoteGitPath("origin", remoteGitDir.getPath());
+            for (String branch
+                    : Utils.plainFilenamesIn(Utils.join(remoteGitDir, "branches"))) {
+                tips.put(branch, Branch.getRemoteCommitId(remoteGitDir.getPath(), branch));
+            }
+            transfer.copy(new HashSet<>(tips.values()));
+        } finally {
+            if (remoteLock != null) {
+                remoteLock.release();
+            }
+        }
+        // The graph must know where history stops before it is given the new commits.
+        Shallow.add(transfer.getShallow());
+        if (blobLimit >= 0) {
+            Config.set(Promisor.PROMISOR, "origin");
+            Config.set(Promisor.BLOB_LIMIT, String.valueOf(blobLimit));
+        }
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            Commit.GRAPH.add(Commit.load(tip.getValue()));
+            Branch.setCommitId("origin/" + tip.getKey(), tip.getValue(),
+                    "clone: from " + remoteGitDir.getPath());
+        }
+
+        Commit headCommit = Commit.load(tips.get(remoteHead));
+        checkoutCommit(headCommit);
+        if (!remoteHead.equals("master")) {
+            Branch.remove("master");
+        }
+        Branch.setCommitId(remoteHead, headCommit.getHash(),
+                "clone: from " + remoteGitDir.getPath());
+        HEAD.setBranchName(remoteHead, "clone: from " + remoteGitDir.getPath());
+    }
+
+    /** Fetches branch REMOTEBRANCHNAME of REMOTENAME and merges it into the current branch. */
+    public static void pullCommand(String remoteName, String remoteBranchName) {
+        fetchCommand(remoteName, remoteBranchName);
+        mergeCommand(remoteName + "/" + remoteBranchName);
+    }
+
+    private static File getRemoteGitDir(String remoteName) {
         String remoteGitPath = Remote.getRemoteGitPath(remoteName);
-        String remoteCwd = remoteGitPath + "/..";
-        if (remoteGitPath == null) {
+        if (remoteGitPath == null || !new File(remoteGitPath).isDirectory()) {
             exitWithMessage("Remote directory not found.");
         }
-        String localBranchName = HEAD.getBranchName();
-        List<String> commitHistory = new ArrayList<>();
+        return new File(remoteGitPath);
+    }
+
+    /** Prints the value of setting KEY, or sets it to VALUE if VALUE is not null. */
+    public static void configCommand(String key, String value) {
+        if (value != null) {
+            Config.set(key, value);
+            return;
+        }
+        String current = Config.get(key);
+        if (current != null) {
+            System.out.println(current);
+        }
+    }
 
-        String localCommitId = Branch.getCommitId(localBranchName);
-        String remoteCommitId = Branch.getRemoteCommitId(remoteGitPath, remoteBranchName);
-        boolean isHistory = false;
-        while (localCommitId != null) {
-            Commit commit = Commit.load(localCommitId);
-            commitHistory.add(localCommitId);
-            if (localCommitId.equals(remoteCommitId)) {
-                isHistory = true;
-                break;
+    /** Prints the mean and median latency of each command, run cold and through the daemon. */
+    public static void latencyCommand() {
+        for (Map.Entry<String, Map<String, List<Long>>> command
+                : Latency.load().entrySet()) {
+            for (Map.Entry<String, List<Long>> mode : command.getValue().entrySet()) {
+                List<Long> times = mode.getValue();
+                Collections.sort(times);
+                long total = 0;
+                for (long time : times) {
+                    total += time;
+                }
+                System.out.println(String.format("%s %s: %d runs, mean %.1f ms, median %d ms",
+                        command.getKey(), mode.getKey(), times.size(),
+                        (double) total / times.size(), times.get(times.size() / 2)));
             }
-            assert commit != null;
-            localCommitId = commit.getFirstParentId();
         }
+    }
 
-        if (!isHistory) {
-            exitWithMessage("Please pull down remote changes before pushing.");
+    /** Prints how often, and for how long, commands have had to wait for the repository lock. */
+    public static void lockStatsCommand() {
+        for (Map.Entry<String, List<Long>> mode : RepositoryLock.loadWaits().entrySet()) {
+            List<Long> waits = mode.getValue();
+            long total = 0;
+            long max = 0;
+            for (long wait : waits) {
+                total += wait;
+                max = Math.max(max, wait);
+            }
+            System.out.println(String.format("%s: %d waits, mean %.1f ms, max %.1f ms",
+                    mode.getKey(), waits.size(), total / 1000.0 / waits.size(), max / 1000.0));
+        }
+    }
+
+    /**
+     * Reports how much space delta compression and chunking save on the
+     * stored blobs: the logical bytes of all blob contents against the
+     * physical bytes of the blob records and the chunks they share.
+     */
+    public static void statsCommand() {
+        long blobs = 0;
+        long deltas = 0;
+        long chunkedBlobs = 0;
+        long logicalBytes = 0;
+        long storedBytes = 0;
+        for (String blobId : Blob.STORE.ids()) {
+            blobs += 1;
+            if (Blob.isDelta(blobId)) {
+                deltas += 1;
+            } else if (Blob.isChunked(blobId)) {
+                chunkedBlobs += 1;
+            }
+            logicalBytes += Blob.contentsLength(blobId);
+            storedBytes += Blob.STORE.size(blobId);
+        }
+        long chunks = 0;
+        long chunkBytes = 0;
+        for (String chunkId : Blob.CHUNKS.ids()) {
+            chunks += 1;
+            chunkBytes += Blob.CHUNKS.size(chunkId);
         }
+        long physicalBytes = storedBytes + chunkBytes;
+        System.out.println("blobs: " + blobs + " (" + deltas + " deltas, "
+                + chunkedBlobs + " chunked)");
+        System.out.println("chunks: " + chunks);
+        System.out.println("logical bytes: " + logicalBytes);
+        System.out.println("stored bytes: " + storedBytes);
+        System.out.println("chunk bytes: " + chunkBytes);
+        System.out.println("physical bytes: " + physicalBytes);
+        double ratio = physicalBytes == 0 ? 1.0 : (double) logicalBytes / physicalBytes;
+        System.out.println(String.format("compression ratio: %.2f", ratio));
+    }
 
-        for (String commitId : commitHistory) {
+    /**
+     * Rewrites commits stored by older versions of gitlet, and the staging
+     * area, in the current format.  A rewritten commit gets a new id, so its
+     * descendants are rewritten too.  Every branch, remote-tracking ones
+     * included, is moved to the new ids, and the reflogs are made to name
+     * the new ids in place of the old.
+     */
+    public static void migrateCommand() {
+        StagingArea.load().save();
+        CommitGraph graph = Commit.GRAPH;
+        Set<String> shallow = Shallow.load();
+        Map<String, String> newIds = new HashMap<>();
+        int migrated = 0;
+        // The graph lists parents before their children.
+        int size = graph.size();
+        for (int pos = 0; pos < size; pos += 1) {
+            String commitId = graph.getId(pos);
             Commit commit = Commit.load(commitId);
             assert commit != null;
-            commit.saveOnRemoteGitPath(remoteGitPath);
+            String firstParentId = commit.getFirstParentId();
+            String secondParentId = commit.getSecondParentId();
+            String newFirstParentId = newIds.getOrDefault(firstParentId, firstParentId);
+            String newSecondParentId = newIds.getOrDefault(secondParentId, secondParentId);
+            if (!commit.isLegacy() && Objects.equals(firstParentId, newFirstParentId)
+                    && Objects.equals(secondParentId, newSecondParentId)) {
+                continue;
+            }
+            Commit newCommit = commit.rewrite(newFirstParentId, newSecondParentId);
+            if (shallow.contains(commitId)) {
+                // The graph must know where history stops before it is given the commit.
+                Shallow.add(List.of(newCommit.getHash()));
+            }
+            // A legacy commit migrated before is still stored, and maps to the same new id.
+            if (!Commit.STORE.contains(newCommit.getHash())) {
+                migrated += 1;
+            }
+            newCommit.save();
+            newIds.put(commitId, newCommit.getHash());
+        }
+        Reflog.remap(newIds);
+        for (String branch : Branch.allNames()) {
+            String commitId = Branch.getCommitId(branch);
+            if (newIds.containsKey(commitId)) {
+                Branch.setCommitId(branch, newIds.get(commitId), "migrate: rewritten");
+            }
         }
+        // A daemon must not keep serving what was read before the rewrite.
+        Commit.clearCache();
+        Blob.clearCache();
+        message("Migrated %d commits.", migrated);
+    }
+
+    /**
+     * Deletes every commit, tree, blob and chunk that cannot be reached from
+     * a branch, a remote-tracking branch, a reflog entry that has not expired
+     * or the staging area, and reports the space reclaimed.  Expired reflog
+     * entries are dropped first.
+     *
+     * Objects are numbered by their order in each store (commits by their
+     * position in the commit graph) and marked reachable in one BitSet per
+     * store.  Commits are walked through the graph and loaded one at a time
+     * only to find their trees, and subtrees already marked are not entered
+     * again, so memory grows with the number of objects, not their size.
+     */
+    public static void gcCommand() {
+        long before = diskUsage(GITLET_DIR);
+        CommitGraph graph = Commit.GRAPH;
+        ObjectNumbering trees = new ObjectNumbering(Tree.STORE);
+        ObjectNumbering blobs = new ObjectNumbering(Blob.STORE);
+        BitSet liveCommits = new BitSet(graph.size());
+        BitSet liveTrees = new BitSet(trees.size());
+        BitSet liveBlobs = new BitSet(blobs.size());
+        ObjectNumbering chunks = new ObjectNumbering(Blob.CHUNKS);
+        BitSet liveChunks = new BitSet(chunks.size());
+
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (String branch : Branch.allNames()) {
+            String commitId = Branch.getCommitId(branch);
+            graph.add(Commit.load(commitId));
+            pending.push(graph.indexOf(commitId));
+        }
+        // Expired reflog entries no longer keep their commits.
+        Reflog.expire();
+        for (String commitId : Reflog.commitIds()) {
+            Commit commit = Commit.load(commitId);
+            if (commit != null) {
+                graph.add(commit);
+                pending.push(graph.indexOf(commitId));
+            }
+        }
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (pos < 0 || liveCommits.get(pos)) {
+                continue;
+            }
+            liveCommits.set(pos);
+            pending.push(graph.getFirstParent(pos));
+            pending.push(graph.getSecondParent(pos));
+            Commit commit = Commit.load(graph.getId(pos));
+            if (commit.isLegacy()) {
+                // Commits from before trees list their files themselves.
+                for (String blobId : commit.getBlobs().values()) {
+                    markBlob(blobId, blobs, liveBlobs);
+                }
+            } else {
+                markTree(commit.getTreeId(), trees, liveTrees, blobs, liveBlobs);
+            }
+        }
+        for (String blobId : StagingArea.load().getAddition().values()) {
+            markBlob(blobId, blobs, liveBlobs);
+        }
+
+        int deadCommits = graph.size() - liveCommits.cardinality();
+        Commit.STORE.retain(id -> {
+            int pos = graph.indexOf(id);
+            return pos >= 0 && liveCommits.get(pos);
+        });
+        Tree.STORE.retain(id -> liveTrees.get(trees.indexOf(id)));
+        for (int number = liveBlobs.nextSetBit(0); number >= 0;
+                number = liveBlobs.nextSetBit(number + 1)) {
+            for (String chunkId : Blob.chunkIds(Blob.STORE, blobs.getId(number))) {
+                int chunk = chunks.indexOf(chunkId);
+                if (chunk >= 0) {
+                    liveChunks.set(chunk);
+                }
+            }
+        }
+        Blob.STORE.retain(id -> liveBlobs.get(blobs.indexOf(id)));
+        Blob.CHUNKS.retain(id -> liveChunks.get(chunks.indexOf(id)));
+        Blob.clearCache();
+        if (deadCommits > 0) {
+            graph.retain(liveCommits);
+            Commit.LOG.clear();
+            Commit.clearCache();
+        }
+
+        message("Removed %d commits, %d trees, %d blobs and %d chunks.", deadCommits,
+                trees.size() - liveTrees.cardinality(), blobs.size() - liveBlobs.cardinality(),
+                chunks.size() - liveChunks.cardinality());
+        message("Reclaimed %d bytes.", before - diskUsage(GITLET_DIR));
+    }
+
+    private static void markTree(String treeId, ObjectNumbering trees, BitSet liveTrees,
+            ObjectNumbering blobs, BitSet liveBlobs) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(treeId);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            int number = trees.indexOf(id);
+            if (number < 0) {
+                throw error("Missing tree %s.", id);
+            }
+            if (liveTrees.get(number)) {
+                continue;
+            }
+            liveTrees.set(number);
+            Tree tree = Tree.load(id);
+            for (String blobId : tree.getBlobs().values()) {
+                markBlob(blobId, blobs, liveBlobs);
+            }
+            for (String subtreeId : tree.getTrees().values()) {
+                pending.push(subtreeId);
+            }
+        }
+    }
+
+    /** Marks blob BLOBID live, along with the blobs its delta chain is built on. */
+    private static void markBlob(String blobId, ObjectNumbering blobs, BitSet liveBlobs) {
+        while (blobId != null) {
+            int number = blobs.indexOf(blobId);
+            if (number < 0 || liveBlobs.get(number)) {
+                return;
+            }
+            liveBlobs.set(number);
+            blobId = Blob.deltaBase(Blob.STORE, blobId);
+        }
+    }
+
+    /**
+     * Checks every object against its id and the history of every branch for
+     * missing objects, then lists the dangling objects; see Fsck.
+     */
+    public static void fsckCommand() {
+        Fsck fsck = new Fsck();
+        fsck.verifyObjects();
+        fsck.checkConnectivity();
+        for (String problem : fsck.getProblems()) {
+            System.out.println(problem);
+        }
+        for (String dangling : fsck.getDangling()) {
+            System.out.println(dangling);
+        }
+        message("Checked %d objects and found %d problems.", fsck.size(),
+                fsck.getProblems().size());
+    }
+
+    /** Returns the total size in bytes of the files under DIR. */
+    private static long diskUsage(File dir) {
+        long total = 0;
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        for (File child : children) {
+            total += child.isDirectory() ? diskUsage(child) : child.length();
+        }
+        return total;
+    }
+
+    /** Moves all loose blobs, chunks, trees and commits into packfiles. */
+    public static void repackCommand() {
+        Blob.STORE.repack();
+        Blob.CHUNKS.repack();
+        Tree.STORE.repack();
+        Commit.STORE.repack();
     }
 }
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the core commands on a generated repository, through the Repository
+ * methods Main calls, and reports latency percentiles and the bytes
+ * allocated per operation.  Run it in an empty directory as
+ *
+ *   java gitlet.RepositoryBenchmark [files] [commits] [branches] [rounds]
+ *
+ * which defaults to 1000 files in 20 directories, 100 commits that each
+ * change a few files, 10 branches spread over that history and 50 timed
+ * rounds of each command, after 5 untimed ones to warm up.  Each add stages
+ * ten changed files, each checkout switches to the oldest branch and back
+ * to master, and each merge joins a new branch that changed one file into
+ * master, which changed another.
+ *
+ * Allocation is read from every live thread, so the parallel workers of
+ * add are counted too.
+ *
+ * @author ZonePG
+ */
+class RepositoryBenchmark {
+
+    private static final int DIRECTORIES = 20;
+    private static final int FILE_LINES = 40;
+    private static final int FILES_PER_COMMIT = 5;
+    private static final int FILES_PER_ADD = 10;
+    private static final int WARMUP = 5;
+    private static final PrintStream OUT = System.out;
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final Random RANDOM = new Random(42);
+    private static int files;
+    private static int edits;
+
+    /** An operation to time, given the number of the round. */
+    private interface Operation {
+        void run(int round);
+    }
+
+    public static void main(String[] args) {
+        files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int branches = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        String[] contents = Repository.CWD.list();
+        if (contents == null || contents.length > 0) {
+            Utils.exitWithMessage("Run the benchmark in an empty directory.");
+        }
+
+        long start = System.nanoTime();
+        System.setOut(DISCARD);
+        Repository.initCommand();
+        for (int i = 0; i < files; i += 1) {
+            write(i);
+        }
+        Repository.addCommand(List.of("."));
+        Repository.commitCommand("generated files");
+        Journal.commit();
+        for (int i = 0; i < commits; i += 1) {
+            for (int k = 0; k < FILES_PER_COMMIT; k += 1) {
+                write(RANDOM.nextInt(files));
+            }
+            Repository.addCommand(List.of("."));
+            Repository.commitCommand("generated commit " + i);
+            if (branches > 0 && i % Math.max(1, commits / branches) == 0
+                    && i / Math.max(1, commits / branches) < branches) {
+                Repository.branchCommand("branch" + i / Math.max(1, commits / branches));
+            }
+            Journal.commit();
+        }
+        System.setOut(OUT);
+        System.out.println(String.format("generated %d files, %d commits, %d branches in %.1f s",
+                files, commits + 1, branches, (System.nanoTime() - start) / 1e9));
+
+        time("add", rounds, round -> {
+            for (int k = 0; k < FILES_PER_ADD; k += 1) {
+                write(RANDOM.nextInt(files));
+            }
+        }, round -> Repository.addCommand(List.of(".")), round -> { });
+        time("commit", rounds, round -> {
+            write(RANDOM.nextInt(files));
+            Repository.addCommand(List.of("."));
+        }, round -> Repository.commitCommand("benchmark commit " + round), round -> { });
+        time("status", rounds, round -> { }, round -> Repository.statusCommand(false), round -> { });
+        time("log", rounds, round -> { }, round -> Repository.logCommand(), round -> { });
+        time("global-log", rounds, round -> { }, round -> Repository.globalLogCommand(),
+                round -> { });
+        if (branches > 0) {
+            time("checkout", rounds, round -> { }, round -> {
+                Repository.checkoutCommand(new String[]{"checkout", "branch0"});
+                Repository.checkoutCommand(new String[]{"checkout", "master"});
+            }, round -> { });
+        }
+        time("merge", rounds, round -> {
+            String branch = "merge" + round;
+            Repository.branchCommand(branch);
+            Repository.checkoutCommand(new String[]{"checkout", branch});
+            write(RANDOM.nextInt(files / 2));
+            Repository.addCommand(List.of("."));
+            Repository.commitCommand("change on " + branch);
+            Repository.checkoutCommand(new String[]{"checkout", "master"});
+            write(files / 2 + RANDOM.nextInt(files - files / 2));
+            Repository.addCommand(List.of("."));
+            Repository.commitCommand("change on master");
+        }, round -> Repository.mergeCommand("merge" + round), round -> { });
+    }
+
+    /**
+     * Runs OPERATION for WARMUP untimed rounds and then ROUNDS timed ones,
+     * running SETUP before each round and TEARDOWN after it, untimed, and
+     * prints the results under NAME.  As when Main runs a command, the
+     * journal is committed after each step, and the timed step includes its
+     * commit.  Everything the commands print is discarded.
+     */
+    private static void time(String name, int rounds, Operation setup, Operation operation,
+            Operation teardown) {
+        long[] nanos = new long[rounds];
+        long allocated = 0;
+        System.setOut(DISCARD);
+        for (int round = 0; round < WARMUP + rounds; round += 1) {
+            setup.run(round);
+            Journal.commit();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            operation.run(round);
+            Journal.commit();
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP) {
+                nanos[round - WARMUP] = elapsed;
+                allocated += allocatedBytes() - bytes;
+            }
+            teardown.run(round);
+            Journal.commit();
+        }
+        System.setOut(OUT);
+        Arrays.sort(nanos);
+        System.out.println(String.format(
+                "%s: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms, %.1f KB/op",
+                name, percentile(nanos, 50) / 1e6, percentile(nanos, 90) / 1e6,
+                percentile(nanos, 99) / 1e6, nanos[nanos.length - 1] / 1e6,
+                allocated / 1024.0 / rounds));
+    }
+
+    /** Returns the P-th percentile of SORTED. */
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** Returns the bytes allocated so far by all live threads. */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    /** Writes new contents to generated file number I. */
+    private static void write(int i) {
+        File dir = Utils.join(Repository.CWD, "dir" + i % DIRECTORIES);
+        dir.mkdir();
+        List<String> lines = new ArrayList<>();
+        for (int k = 0; k < FILE_LINES; k += 1) {
+            lines.add("file " + i + " line " + k + "\n");
+        }
+        edits += 1;
+        lines.set(RANDOM.nextInt(FILE_LINES), "edit " + edits + "\n");
+        Utils.writeContents(Utils.join(dir, "file" + i + ".txt"), String.join("", lines));
+    }
+}
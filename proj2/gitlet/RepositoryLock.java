@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes gitlet processes working on the same repository with a lock on
+ * .gitlet/lock.  Commands that only read take a shared lock, so any number of
+ * them run at once; every other command takes an exclusive lock.
+ *
+ * Read-only commands still extend caches such as the commit graph and commit
+ * log; those appends take an exclusive lock of their own through exclusive,
+ * and whole-file rewrites go through a unique temporary file from tempFileFor
+ * and a rename, so concurrent readers never see a cache half-written.
+ *
+ * Push, fetch and clone also lock the other repository they work on, in
+ * the same way, so that they never see its refs or objects half-changed.
+ *
+ * Whenever a command has to wait for the lock, the wait is appended to
+ * .gitlet/lock-stats as one line: mode, command, microseconds.
+ *
+ * @author ZonePG
+ */
+public class RepositoryLock {
+
+    public static final File LOCK_FILE = Utils.join(Repository.GITLET_DIR, "lock");
+    public static final File STATS_FILE = Utils.join(Repository.GITLET_DIR, "lock-stats");
+
+    /** Commands that never change refs, the staging area or the working tree. */
+    private static final Set<String> READ_ONLY = Set.of(
+            "log", "global-log", "find", "status", "diff", "is-ancestor", "merge-base",
+            "stats", "latency", "lock-stats", "fsck", "reflog");
+    /** Commands that lock for themselves, or need no repository. */
+    private static final Set<String> UNLOCKED = Set.of("init", "daemon");
+
+    /** Locks held by this process, so that exclusive may be re-entered. */
+    private static final Map<File, ReentrantLock> HELD = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private RepositoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Locks the repository for COMMAND, returning null if it needs no lock. */
+    public static RepositoryLock acquire(String command) {
+        if (UNLOCKED.contains(command) || !Repository.GITLET_DIR.isDirectory()) {
+            return null;
+        }
+        // Replaying an interrupted command's journal is a write.
+        boolean shared = READ_ONLY.contains(command) && !Journal.JOURNAL_FILE.exists();
+        return lock(LOCK_FILE, shared, command);
+    }
+
+    /**
+     * Locks the repository whose .gitlet directory is GITDIR for a push
+     * (exclusive) or a fetch or clone (SHARED) from this one, and finishes
+     * any command interrupted there.  Returns null if GITDIR is this
+     * repository's, which is locked already.  Waits for another
+     * repository's lock are not recorded in this one's lock-stats.
+     */
+    public static RepositoryLock acquireIn(File gitDir, boolean shared) {
+        try {
+            if (gitDir.getCanonicalFile().equals(Repository.GITLET_DIR.getCanonicalFile())) {
+                return null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File journalFile = Utils.join(gitDir, Journal.JOURNAL_FILE.getName());
+        RepositoryLock result = lock(Utils.join(gitDir, LOCK_FILE.getName()),
+                shared && !journalFile.exists(), null);
+        Journal.recover(journalFile);
+        return result;
+    }
+
+    /** Locks LOCKFILE, recording any wait for it against COMMAND unless it is null. */
+    private static RepositoryLock lock(File lockFile, boolean shared, String command) {
+        try {
+            FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock == null) {
+                long start = System.nanoTime();
+                lock = channel.lock(0, Long.MAX_VALUE, shared);
+                if (command != null) {
+                    recordWait(shared ? "shared" : "exclusive", command,
+                            (System.nanoTime() - start) / 1000);
+                }
+            }
+            return new RepositoryLock(channel, lock);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    public void release() {
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Runs ACTION while holding an exclusive lock on LOCKFILE. */
+    public static void exclusive(File lockFile, Runnable action) {
+        ReentrantLock local = HELD.computeIfAbsent(lockFile, k -> new ReentrantLock());
+        local.lock();
+        try {
+            if (local.getHoldCount() > 1) {
+                action.run();
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    action.run();
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    /** Returns a new empty file beside TARGET, to be written and renamed over it. */
+    public static File tempFileFor(File target) {
+        try {
+            return File.createTempFile(target.getName() + "-tmp-", null, target.getParentFile());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void recordWait(String mode, String command, long micros) {
+        String line = mode + " " + command + " " + micros + "\n";
+        try (FileOutputStream out = new FileOutputStream(STATS_FILE, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the recorded lock waits in microseconds, by mode. */
+    public static Map<String, List<Long>> loadWaits() {
+        Map<String, List<Long>> result = new TreeMap<>();
+        if (!STATS_FILE.exists()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(STATS_FILE).split("\n")) {
+            String[] fields = line.split(" ");
+            if (fields.length == 3) {
+                result.computeIfAbsent(fields[0], k -> new ArrayList<>())
+                        .add(Long.parseLong(fields[2]));
+            }
+        }
+        return result;
+    }
+}
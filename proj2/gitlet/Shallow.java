@@ -0,0 +1,51 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The commits at the edge of a shallow clone's history, whose parents were
+ * not copied.  They are listed in the "shallow" file of the .gitlet
+ * directory, one id per line, and history walks treat them as having no
+ * parents.  A repository without that file has its whole history.
+ *
+ * @author ZonePG
+ */
+public class Shallow {
+
+    public static final File SHALLOW_FILE = Utils.join(Repository.GITLET_DIR, "shallow");
+
+    /** Returns the shallow commits of this repository. */
+    public static Set<String> load() {
+        return load(SHALLOW_FILE);
+    }
+
+    /** Returns the shallow commits listed in FILE, which may not exist. */
+    public static Set<String> load(File file) {
+        Set<String> result = new TreeSet<>();
+        if (!Journal.exists(file)) {
+            return result;
+        }
+        for (String line : Journal.readContentsAsString(file).split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /** Adds COMMITIDS to the shallow commits of this repository. */
+    public static void add(Collection<String> commitIds) {
+        Set<String> ids = load();
+        if (!ids.addAll(commitIds)) {
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String id : ids) {
+            contents.append(id).append('\n');
+        }
+        Journal.write(SHALLOW_FILE, contents.toString());
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The sparse-checkout patterns, which limit the tracked files that are
+ * written to the working tree.  They are kept in .gitlet/sparse-checkout, one
+ * per line, and written through the journal like the other refs; without that
+ * file every file is checked out.
+ *
+ * A pattern names a file or a directory, relative to the top of the working
+ * tree, and takes in the file or everything beneath the directory.  In a
+ * pattern, "*" and "?" match within one path component and "**" matches
+ * across components, so "src/app" and "docs/*.md" are both patterns.  Blank
+ * lines and lines starting with "#" are ignored.
+ *
+ * Files outside the patterns are still tracked, committed and merged; they
+ * are just not written out, and are not reported as deleted because they are
+ * missing.
+ *
+ * @author ZonePG
+ */
+public class Sparse {
+
+    public static final File SPARSE_FILE = Utils.join(Repository.GITLET_DIR, "sparse-checkout");
+
+    private final List<String> patterns;
+    private final List<Pattern> compiled = new ArrayList<>();
+
+    private Sparse(List<String> patterns) {
+        this.patterns = patterns;
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                compiled.add(compile(pattern));
+            }
+        }
+    }
+
+    /** Returns the current patterns. */
+    public static Sparse load() {
+        if (!Journal.exists(SPARSE_FILE)) {
+            return new Sparse(null);
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Journal.readContentsAsString(SPARSE_FILE).split("\n")) {
+            String pattern = line.trim();
+            if (!pattern.isEmpty() && !pattern.startsWith("#")) {
+                patterns.add(pattern);
+            }
+        }
+        return new Sparse(patterns);
+    }
+
+    /** Makes PATTERNS the current patterns, returning them. */
+    public static Sparse set(List<String> patterns) {
+        Journal.write(SPARSE_FILE, String.join("\n", patterns) + "\n");
+        return new Sparse(new ArrayList<>(patterns));
+    }
+
+    /** Turns sparse checkout off, returning patterns that take in every file. */
+    public static Sparse disable() {
+        if (Journal.exists(SPARSE_FILE)) {
+            Journal.delete(SPARSE_FILE);
+        }
+        return new Sparse(null);
+    }
+
+    /** Returns true iff these patterns limit the files checked out. */
+    public boolean isEnabled() {
+        return patterns != null;
+    }
+
+    /** Returns the patterns, or an empty list if every file is checked out. */
+    public List<String> getPatterns() {
+        return patterns == null ? new ArrayList<>() : patterns;
+    }
+
+    /** Returns true iff the tracked file FILENAME belongs in the working tree. */
+    public boolean includes(String fileName) {
+        if (patterns == null) {
+            return true;
+        }
+        for (Pattern pattern : compiled) {
+            if (pattern.matcher(fileName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a regular expression matching the paths PATTERN takes in. */
+    private static Pattern compile(String pattern) {
+        String glob = pattern.replaceAll("^/+|/+$", "");
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i += 1) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i += 1;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        // A directory takes in everything beneath it.
+        regex.append("(/.*)?");
+        return Pattern.compile(regex.toString());
+    }
+}
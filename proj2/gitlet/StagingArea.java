@@ -1,12 +1,33 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
+/**
+ * The files staged for the next commit.  It is stored in a small versioned
+ * binary format: magic, version, the number of additions followed by a
+ * (name, 20-byte blob id) pair for each, then the number of removals followed
+ * by their names.  Staging areas written by older versions of gitlet are
+ * Java-serialized and still load.
+ *
+ * @author ZonePG
+ */
 public class StagingArea implements Serializable {
 
+    /** Kept from before the binary format, so that older staging areas still load. */
+    private static final long serialVersionUID = 1669073040591247261L;
+
+    private static final int MAGIC = 0x474c5341;
+    private static final byte VERSION = 1;
+
     // fileName -> blobId
     private HashMap<String, String> addition;
     // fileName
@@ -20,11 +41,48 @@ public class StagingArea implements Serializable {
     }
 
     public static StagingArea load() {
-        return Utils.readObject(STAGE_FILE, StagingArea.class);
+        byte[] record = Journal.readContents(STAGE_FILE);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            if (record.length < 4 || in.readInt() != MAGIC) {
+                return Utils.deserialize(record, StagingArea.class);
+            }
+            if (in.readByte() != VERSION) {
+                throw Utils.error("Unsupported staging area format.");
+            }
+            StagingArea stagingArea = new StagingArea();
+            byte[] blobId = new byte[Utils.UID_LENGTH / 2];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String fileName = in.readUTF();
+                in.readFully(blobId);
+                stagingArea.addition.put(fileName, Utils.bytesToHex(blobId, 0, blobId.length));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                stagingArea.removal.add(in.readUTF());
+            }
+            return stagingArea;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     public void save() {
-        Utils.writeObject(STAGE_FILE, this);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(addition.size());
+            for (Map.Entry<String, String> entry : addition.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(Utils.hexToBytes(entry.getValue()));
+            }
+            out.writeInt(removal.size());
+            for (String fileName : removal) {
+                out.writeUTF(fileName);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.write(STAGE_FILE, bytes.toByteArray());
     }
 
     public HashMap<String, String> getAddition() {
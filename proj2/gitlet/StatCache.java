@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the size, modification time and file key (the inode, on Unix) of
+ * working files next to their blob ids, like git's index, so that unchanged
+ * files do not have to be read and hashed again.
+ *
+ * A file modified no earlier than the cache file itself could have changed
+ * again within the file system's timestamp resolution without its stat data
+ * changing, so such "racily clean" entries are always rehashed.
+ *
+ * blobId and update may be called from several threads at once.
+ *
+ * @author ZonePG
+ */
+public class StatCache {
+
+    public static final File INDEX_FILE = Utils.join(Repository.GITLET_DIR, "index");
+
+    private static final int MAGIC = 0x47494458;
+
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final long fileKey;
+        private final String blobId;
+
+        Entry(long size, long mtime, long fileKey, String blobId) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.blobId = blobId;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private long writtenAt;
+    private volatile boolean dirty;
+
+    public static StatCache load() {
+        StatCache cache = new StatCache();
+        if (!INDEX_FILE.exists()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC) {
+                return cache;
+            }
+            cache.writtenAt = Files.getLastModifiedTime(INDEX_FILE.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readUTF();
+                cache.entries.put(fileName, new Entry(in.readLong(), in.readLong(),
+                        in.readLong(), in.readUTF()));
+            }
+        } catch (IOException excp) {
+            // A damaged cache only costs rehashing.
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        // Readers save concurrently under a shared lock, so the cache is replaced whole.
+        File tmpFile = RepositoryLock.tempFileFor(INDEX_FILE);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.fileKey);
+                out.writeUTF(entry.blobId);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!tmpFile.renameTo(INDEX_FILE)) {
+            throw Utils.error("Could not write %s.", INDEX_FILE);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Returns the blob id of the working file FILENAME, reading and hashing
+     * it only if its stat data changed since it was last hashed.
+     */
+    public String blobId(String fileName) {
+        File file = Utils.join(Repository.CWD, fileName);
+        BasicFileAttributes attributes = stat(file);
+        Entry entry = entries.get(fileName);
+        if (entry != null && matches(entry, attributes) && entry.mtime < writtenAt) {
+            return entry.blobId;
+        }
+        String blobId = Blob.hashFile(file);
+        remember(fileName, attributes, blobId);
+        return blobId;
+    }
+
+    /** Records that the working file FILENAME currently holds blob BLOBID. */
+    public void update(String fileName, String blobId) {
+        remember(fileName, stat(Utils.join(Repository.CWD, fileName)), blobId);
+    }
+
+    /** Forgets every file not in FILENAMES. */
+    public void retainAll(Collection<String> fileNames) {
+        if (entries.keySet().retainAll(fileNames)) {
+            dirty = true;
+        }
+    }
+
+    private void remember(String fileName, BasicFileAttributes attributes, String blobId) {
+        entries.put(fileName, new Entry(attributes.size(), mtime(attributes),
+                fileKey(attributes), blobId));
+        dirty = true;
+    }
+
+    private static boolean matches(Entry entry, BasicFileAttributes attributes) {
+        return entry.size == attributes.size() && entry.mtime == mtime(attributes)
+                && entry.fileKey == fileKey(attributes);
+    }
+
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static long mtime(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static long fileKey(BasicFileAttributes attributes) {
+        return Objects.hashCode(attributes.fileKey());
+    }
+}
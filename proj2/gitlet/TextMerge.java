@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * Merges two versions of a text file against the version they both came
+ * from, in the manner of diff3.  Edits each side made to the base are lined
+ * up by the base lines they touch; edits from the two sides that overlap or
+ * touch are grouped into one hunk.  A hunk only one side changed, or both
+ * changed the same way, takes that change; any other hunk becomes a conflict,
+ * written with the same markers gitlet has always used for whole files:
+ *
+ *   <<<<<<< HEAD
+ *   (current lines)
+ *   =======
+ *   (given lines)
+ *   >>>>>>>
+ *
+ * @author ZonePG
+ */
+class TextMerge {
+
+    private final String text;
+    private final boolean conflict;
+
+    private TextMerge(String text, boolean conflict) {
+        this.text = text;
+        this.conflict = conflict;
+    }
+
+    /** The merged text, with conflict markers around any conflicting hunks. */
+    String getText() {
+        return text;
+    }
+
+    /** Returns true iff some hunk was changed differently by both sides. */
+    boolean hasConflict() {
+        return conflict;
+    }
+
+    /** Merges CURRENT and GIVEN, both descended from BASE. */
+    static TextMerge merge(String base, String current, String given) {
+        List<String> baseLines = Diff.lines(base);
+        List<String> currentLines = Diff.lines(current);
+        List<String> givenLines = Diff.lines(given);
+        List<Diff.Edit> ours = Diff.diff(baseLines, currentLines);
+        List<Diff.Edit> theirs = Diff.diff(baseLines, givenLines);
+
+        StringBuilder result = new StringBuilder();
+        boolean conflict = false;
+        int basePos = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ours.size() || j < theirs.size()) {
+            // Start a hunk at whichever side's next edit comes first, then
+            // take in every edit from either side that overlaps or touches it.
+            int start = Math.min(i < ours.size() ? ours.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirs.size() ? theirs.get(j).aStart : Integer.MAX_VALUE);
+            int end = start;
+            int firstOurs = i;
+            int firstTheirs = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < ours.size() && ours.get(i).aStart <= end) {
+                    end = Math.max(end, ours.get(i).aEnd);
+                    i += 1;
+                    grew = true;
+                }
+                while (j < theirs.size() && theirs.get(j).aStart <= end) {
+                    end = Math.max(end, theirs.get(j).aEnd);
+                    j += 1;
+                    grew = true;
+                }
+            }
+            append(result, baseLines, basePos, start);
+            String currentHunk = side(baseLines, currentLines, ours, firstOurs, i, start, end);
+            String givenHunk = side(baseLines, givenLines, theirs, firstTheirs, j, start, end);
+            if (firstTheirs == j || currentHunk.equals(givenHunk)) {
+                result.append(currentHunk);
+            } else if (firstOurs == i) {
+                result.append(givenHunk);
+            } else {
+                conflict = true;
+                result.append("<<<<<<< HEAD\n").append(currentHunk).append("=======\n")
+                        .append(givenHunk).append(">>>>>>>\n");
+            }
+            basePos = end;
+        }
+        append(result, baseLines, basePos, baseLines.size());
+        return new TextMerge(result.toString(), conflict);
+    }
+
+    /**
+     * Returns what SIDE made of base lines [START, END), given that EDITS
+     * [FROM, TO) are the side's edits within that range.
+     */
+    private static String side(List<String> base, List<String> side, List<Diff.Edit> edits,
+            int from, int to, int start, int end) {
+        StringBuilder result = new StringBuilder();
+        if (from == to) {
+            append(result, base, start, end);
+            return result.toString();
+        }
+        int sideStart = edits.get(from).bStart - (edits.get(from).aStart - start);
+        int sideEnd = edits.get(to - 1).bEnd + (end - edits.get(to - 1).aEnd);
+        append(result, side, sideStart, sideEnd);
+        return result.toString();
+    }
+
+    private static void append(StringBuilder result, List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            result.append(lines.get(k));
+        }
+    }
+}
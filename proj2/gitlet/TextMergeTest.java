@@ -0,0 +1,74 @@
+package gitlet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests line-by-line merging, especially where the two sides' edits meet.
+ *
+ * @author ZonePG
+ */
+public class TextMergeTest {
+
+    private static final String BASE = "a\nb\nc\nd\ne\n";
+
+    @Test
+    public void separateEditsMergeCleanly() {
+        TextMerge merge = TextMerge.merge(BASE, "A\nb\nc\nd\ne\n", "a\nb\nc\nd\nE\n");
+        assertFalse(merge.hasConflict());
+        assertEquals("A\nb\nc\nd\nE\n", merge.getText());
+    }
+
+    @Test
+    public void sameEditOnBothSidesIsTakenOnce() {
+        TextMerge merge = TextMerge.merge(BASE, "a\nB\nc\nd\ne\n", "a\nB\nc\nd\ne\n");
+        assertFalse(merge.hasConflict());
+        assertEquals("a\nB\nc\nd\ne\n", merge.getText());
+    }
+
+    @Test
+    public void differentEditsToOneLineConflict() {
+        TextMerge merge = TextMerge.merge(BASE, "a\nX\nc\nd\ne\n", "a\nY\nc\nd\ne\n");
+        assertTrue(merge.hasConflict());
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\nd\ne\n", merge.getText());
+    }
+
+    @Test
+    public void touchingEditsConflictAsOneHunk() {
+        // Changes to adjacent lines cannot be told apart from one change to both.
+        TextMerge merge = TextMerge.merge(BASE, "a\nX\nc\nd\ne\n", "a\nb\nY\nd\ne\n");
+        assertTrue(merge.hasConflict());
+        assertEquals("a\n<<<<<<< HEAD\nX\nc\n=======\nb\nY\n>>>>>>>\nd\ne\n",
+                merge.getText());
+    }
+
+    @Test
+    public void insertionsAtOnePointConflict() {
+        TextMerge merge = TextMerge.merge(BASE, "a\nb\nX\nc\nd\ne\n", "a\nb\nY\nc\nd\ne\n");
+        assertTrue(merge.hasConflict());
+        assertEquals("a\nb\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\nd\ne\n",
+                merge.getText());
+    }
+
+    @Test
+    public void deletionAgainstEditConflicts() {
+        TextMerge merge = TextMerge.merge(BASE, "a\nc\nd\ne\n", "a\nY\nc\nd\ne\n");
+        assertTrue(merge.hasConflict());
+        assertEquals("a\n<<<<<<< HEAD\n=======\nY\n>>>>>>>\nc\nd\ne\n", merge.getText());
+    }
+
+    @Test
+    public void bothAddingToAnEmptyBaseConflicts() {
+        TextMerge merge = TextMerge.merge("", "X\n", "Y\n");
+        assertTrue(merge.hasConflict());
+        assertEquals("<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n", merge.getText());
+    }
+
+    @Test
+    public void missingFinalNewlineIsKept() {
+        TextMerge merge = TextMerge.merge("a\nb\nc", "A\nb\nc", "a\nb\nC");
+        assertFalse(merge.hasConflict());
+        assertEquals("A\nb\nC", merge.getText());
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A content-addressed directory listing.  Each entry names either a blob (a
+ * file) or another tree (a subdirectory), so a commit only needs the id of
+ * its root tree, and commits that leave a directory unchanged share the same
+ * tree object for it.
+ *
+ * A tree is stored as one line per entry, "blob ID NAME" or "tree ID NAME",
+ * sorted by name; its id is the SHA-1 of that text.
+ *
+ * @author ZonePG
+ */
+public class Tree {
+    public static final File TREES_DIR = Utils.join(Repository.GITLET_DIR, "/trees");
+    public static final ObjectStore STORE = new PackedObjectStore(TREES_DIR);
+    /** The id of the tree with no entries. */
+    private static final String EMPTY_ID = Utils.sha1("");
+
+    // name -> blobId
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+    // name -> treeId
+    private final TreeMap<String, String> trees = new TreeMap<>();
+
+    private Tree() {
+    }
+
+    public static Tree load(String treeId) {
+        return load(STORE, treeId);
+    }
+
+    /** Returns tree TREEID, read from STORE. */
+    public static Tree load(ObjectStore store, String treeId) {
+        byte[] contents = store.get(treeId);
+        if (contents == null) {
+            throw Utils.error("Missing tree %s.", treeId);
+        }
+        Tree tree = new Tree();
+        String text = new String(contents, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(" ", 3);
+            if (fields[0].equals("tree")) {
+                tree.trees.put(fields[2], fields[1]);
+            } else {
+                tree.blobs.put(fields[2], fields[1]);
+            }
+        }
+        return tree;
+    }
+
+    /** Saves this tree, returning its id. */
+    private String save() {
+        TreeMap<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            lines.put(entry.getKey(), "blob " + entry.getValue() + " " + entry.getKey() + "\n");
+        }
+        for (Map.Entry<String, String> entry : trees.entrySet()) {
+            lines.put(entry.getKey(), "tree " + entry.getValue() + " " + entry.getKey() + "\n");
+        }
+        byte[] contents = String.join("", lines.values()).getBytes(StandardCharsets.UTF_8);
+        String treeId = Utils.sha1((Object) contents);
+        STORE.put(treeId, contents);
+        return treeId;
+    }
+
+    public Map<String, String> getBlobs() {
+        return blobs;
+    }
+
+    public Map<String, String> getTrees() {
+        return trees;
+    }
+
+    /** Returns the id of the tree holding FILES, a map from path to blob id. */
+    public static String write(Map<String, String> files) {
+        return update(null, files, Set.of());
+    }
+
+    /**
+     * Returns the id of the tree that results from tree TREEID (or an empty
+     * tree, if TREEID is null) by setting the paths in ADDITIONS to their blob
+     * ids and dropping the paths in REMOVALS.  Only the trees along changed
+     * paths are rewritten; every other subtree keeps its id.
+     */
+    public static String update(String treeId, Map<String, String> additions,
+            Set<String> removals) {
+        Tree tree = treeId == null ? new Tree() : load(treeId);
+        if (additions.isEmpty() && removals.isEmpty() && treeId != null) {
+            return treeId;
+        }
+        Map<String, Map<String, String>> childAdditions = new HashMap<>();
+        Map<String, Set<String>> childRemovals = new HashMap<>();
+        for (Map.Entry<String, String> entry : additions.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.blobs.put(path, entry.getValue());
+            } else {
+                childAdditions.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), entry.getValue());
+            }
+        }
+        for (String path : removals) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.blobs.remove(path);
+            } else {
+                childRemovals.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashSet<>()).add(path.substring(slash + 1));
+            }
+        }
+        Set<String> children = new HashSet<>(childAdditions.keySet());
+        children.addAll(childRemovals.keySet());
+        for (String child : children) {
+            String childId = update(tree.trees.get(child),
+                    childAdditions.getOrDefault(child, Map.of()),
+                    childRemovals.getOrDefault(child, Set.of()));
+            if (childId.equals(EMPTY_ID)) {
+                tree.trees.remove(child);
+            } else {
+                tree.trees.put(child, childId);
+            }
+        }
+        return tree.save();
+    }
+
+    /** Returns a map from the path of every file under tree TREEID to its blob id. */
+    public static HashMap<String, String> flatten(String treeId) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(treeId, "", result);
+        return result;
+    }
+
+    private static void flatten(String treeId, String prefix, Map<String, String> result) {
+        Tree tree = load(treeId);
+        for (Map.Entry<String, String> entry : tree.blobs.entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.trees.entrySet()) {
+            flatten(entry.getValue(), prefix + entry.getKey() + "/", result);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -17,6 +18,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /** Assorted utilities.
@@ -63,6 +67,39 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the 20 raw bytes denoted by the hexadecimal UID ID. */
+    static byte[] hexToBytes(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal numeral for the LENGTH raw bytes of BYTES
+     *  starting at OFFSET. */
+    static String bytesToHex(byte[] bytes, int offset, int length) {
+        StringBuilder result = new StringBuilder(2 * length);
+        for (int i = offset; i < offset + length; i += 1) {
+            result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            result.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Returns true iff ID looks like a complete SHA-1 UID. */
+    static boolean isUid(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(id.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -220,6 +257,62 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
+    /* COMPRESSION UTILITIES */
+
+    /** Returns BYTES compressed with zlib. */
+    static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            stream.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return stream.toByteArray();
+    }
+
+    /** Returns the zlib-decompressed bytes of BYTES, starting at OFFSET. */
+    static byte[] inflate(byte[] bytes, int offset) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes, offset, bytes.length - offset);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw error("Truncated compressed data.");
+                }
+                stream.write(buffer, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return stream.toByteArray();
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -237,8 +330,8 @@ class Utils {
         System.out.println();
     }
 
+    /** Abandons the current command, which prints MSG and ends. */
     static void exitWithMessage(String msg) {
-        message(msg);
-        System.exit(0);
+        throw new GitletException(msg);
     }
 }
@@ -0,0 +1,62 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Runs per-file work, such as hashing or writing working files, on a
+ * ForkJoinPool sized by Config.parallelism().
+ *
+ * @author ZonePG
+ */
+class Workers {
+
+    /** Lists shorter than this are split no further. */
+    private static final int BATCH_SIZE = 16;
+
+    /** Applies ACTION to every element of ITEMS, in parallel and in no particular order. */
+    static <T> void forEach(List<T> items, Consumer<T> action) {
+        int parallelism = Config.parallelism();
+        if (parallelism == 1 || items.size() <= 1) {
+            items.forEach(action);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Batch<>(items, 0, items.size(), action));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Batch<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final Consumer<T> action;
+
+        Batch(List<T> items, int from, int to, Consumer<T> action) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                for (int i = from; i < to; i += 1) {
+                    action.accept(items.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch<>(items, from, mid, action),
+                    new Batch<>(items, mid, to, action));
+        }
+    }
+}